@@ -0,0 +1,20 @@
+#!/bin/sh
+# Builds the benchmarks against the current working tree and records the
+# results as JSON in results/<commit>.json, so that runs from different
+# commits can be compared side by side (e.g. with https://jmh.morethan.io/).
+# Any arguments are passed on to JMH, e.g. a benchmark name regexp or
+# "-f 3" for more forks.
+set -e
+
+cd "$(dirname "$0")"
+commit=$(git rev-parse --short HEAD)
+if ! git diff --quiet HEAD -- ../src; then
+    commit="$commit-dirty"
+fi
+
+(cd .. && mvn -B -q -DskipTests install)
+mvn -B -q package
+
+mkdir -p results
+java -jar target/benchmarks.jar -rf json -rff "results/$commit.json" "$@"
+echo "Results written to results/$commit.json"
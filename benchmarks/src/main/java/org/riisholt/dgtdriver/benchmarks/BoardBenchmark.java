@@ -0,0 +1,81 @@
+package org.riisholt.dgtdriver.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.riisholt.dgtdriver.game.Board;
+import org.riisholt.dgtdriver.game.Move;
+import org.riisholt.dgtdriver.game.MoveList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The basic board operations used when tracking a game: copying a board,
+ * playing a move on it, comparing piece setups, and moving a single piece
+ * with discard/put as field updates do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BoardBenchmark {
+    private List<Board> positions;
+    private List<Move> moves;
+    private List<Board> copies;
+
+    @Setup
+    public void setup() {
+        positions = Positions.randomPlayouts(1000);
+        moves = new ArrayList<>(positions.size());
+        copies = new ArrayList<>(positions.size());
+        MoveList legal = new MoveList();
+        for(Board board: positions) {
+            board.legalMoves(legal);
+            moves.add(legal.isEmpty() ? null : new Move(legal.get(0)));
+            copies.add(new Board(board));
+        }
+    }
+
+    @Benchmark
+    public void copy(Blackhole bh) {
+        for(Board board: positions) {
+            bh.consume(new Board(board));
+        }
+    }
+
+    @Benchmark
+    public void copyAndPlay(Blackhole bh) {
+        for(int i = 0; i < positions.size(); i++) {
+            Move move = moves.get(i);
+            if(move == null)
+                continue;
+            Board board = new Board(positions.get(i));
+            board.play(move);
+            bh.consume(board);
+        }
+    }
+
+    @Benchmark
+    public void equalSetup(Blackhole bh) {
+        for(int i = 0; i < positions.size(); i++) {
+            bh.consume(positions.get(i).equalSetup(copies.get(i)));
+        }
+    }
+
+    @Benchmark
+    public void discardPut(Blackhole bh) {
+        for(int i = 0; i < positions.size(); i++) {
+            Move move = moves.get(i);
+            if(move == null || move.type != Move.NORMAL)
+                continue;
+            Board board = copies.get(i);
+            boolean white = board.whiteAt(move.from);
+            board.discard(move.from);
+            board.put(move.from, white, move.role);
+            bh.consume(board);
+        }
+    }
+}
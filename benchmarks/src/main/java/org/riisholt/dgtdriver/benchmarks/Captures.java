@@ -0,0 +1,94 @@
+package org.riisholt.dgtdriver.benchmarks;
+
+import org.riisholt.dgtdriver.DgtDriver;
+import org.riisholt.dgtdriver.DgtMessage;
+import org.riisholt.dgtdriver.moveparser.Game;
+import org.riisholt.dgtdriver.moveparser.MoveParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * The captured board sessions from the library's test resources, which are
+ * copied into the benchmark jar at build time. Each capture is a file of
+ * base64 encoded chunks, one per line, as they were read from the serial
+ * port.
+ */
+public class Captures {
+    private Captures() {}
+
+    /**
+     * Reads a capture as the list of chunks delivered by the serial port.
+     *
+     * @param name The capture name, e.g. "johan" for johan.inbytes
+     * @return The raw chunks, in order
+     */
+    public static List<byte[]> chunks(String name) {
+        String filename = "/" + name + ".inbytes";
+        InputStream s = Captures.class.getResourceAsStream(filename);
+        if(s == null)
+            throw new IllegalArgumentException(String.format("Failed to locate resource %s", filename));
+
+        List<byte[]> chunks = new ArrayList<>();
+        Base64.Decoder decoder = Base64.getDecoder();
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(s))) {
+            String line;
+            while((line = reader.readLine()) != null)
+                chunks.add(decoder.decode(line));
+        }
+        catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+        return chunks;
+    }
+
+    /**
+     * Splits a capture into single byte chunks, as delivered by a serial
+     * port that returns each byte as soon as it arrives.
+     *
+     * @param chunks The chunks of a capture
+     * @return One single byte array per byte of input
+     */
+    public static List<byte[]> singleBytes(List<byte[]> chunks) {
+        List<byte[]> bytes = new ArrayList<>();
+        for(byte[] chunk: chunks) {
+            for(byte b: chunk)
+                bytes.add(new byte[]{b});
+        }
+        return bytes;
+    }
+
+    /**
+     * Decodes a capture into the messages the driver produces from it.
+     *
+     * @param chunks The chunks of a capture
+     * @return The decoded messages, in order
+     */
+    public static List<DgtMessage> messages(List<byte[]> chunks) {
+        List<DgtMessage> messages = new ArrayList<>();
+        DgtDriver driver = new DgtDriver(messages::add, null);
+        for(byte[] chunk: chunks)
+            driver.gotBytes(chunk);
+        return messages;
+    }
+
+    /**
+     * Reconstructs the games in a capture.
+     *
+     * @param messages The decoded messages of a capture
+     * @return The games found by the move parser
+     */
+    public static List<Game> games(List<DgtMessage> messages) {
+        List<Game> games = new ArrayList<>();
+        MoveParser parser = new MoveParser(games::add);
+        for(DgtMessage msg: messages)
+            parser.gotMessage(msg);
+        parser.endGame();
+        return games;
+    }
+}
@@ -0,0 +1,47 @@
+package org.riisholt.dgtdriver.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.riisholt.dgtdriver.DgtDriver;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a captured session by {@link DgtDriver#gotBytes(byte[])}, once
+ * with the chunks as they were read from the serial port and once with every
+ * byte delivered separately.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DriverBenchmark {
+    @Param({"1", "2", "johan"})
+    public String capture;
+
+    private List<byte[]> chunks;
+    private List<byte[]> singleBytes;
+
+    @Setup
+    public void setup() {
+        chunks = Captures.chunks(capture);
+        singleBytes = Captures.singleBytes(chunks);
+    }
+
+    @Benchmark
+    public void chunked(Blackhole bh) {
+        DgtDriver driver = new DgtDriver(bh::consume, null);
+        for(byte[] chunk: chunks)
+            driver.gotBytes(chunk);
+    }
+
+    @Benchmark
+    public void byteAtATime(Blackhole bh) {
+        DgtDriver driver = new DgtDriver(bh::consume, null);
+        for(byte[] b: singleBytes)
+            driver.gotBytes(b);
+    }
+}
@@ -0,0 +1,378 @@
+package org.riisholt.dgtdriver.benchmarks;
+
+import org.riisholt.dgtdriver.BWTime;
+import org.riisholt.dgtdriver.DgtDriver;
+import org.riisholt.dgtdriver.game.Board;
+import org.riisholt.dgtdriver.moveparser.Game;
+import org.riisholt.dgtdriver.moveparser.MoveParser;
+import org.riisholt.dgtdriver.moveparser.PlayedMove;
+import org.riisholt.dgtdriver.simulator.BoardSimulator;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A load test tracking many boards in one JVM, to size the hosts for a
+ * tournament hall. Each board is a {@link BoardSimulator} connected to its own
+ * {@link DgtDriver} and {@link MoveParser}, replaying the games of the
+ * captured sessions over and over. The boards are driven by a thread pool,
+ * standing in for the threads reading the serial ports: once per clock
+ * interval each board sends a clock update, like a running DGT clock, and
+ * every so many intervals a move is played first.</p>
+ *
+ * <p>Unlike the JMH benchmarks, this isn't run by JMH. Build the benchmark jar
+ * and run it with the number of boards and other options:</p>
+ *
+ * <pre>
+ * java -Xmx1g -cp target/benchmarks.jar org.riisholt.dgtdriver.benchmarks.LoadTest -boards 500 -duration 60
+ * </pre>
+ *
+ * <p>The options are:</p>
+ *
+ * <ul>
+ *     <li>{@code -boards}: the number of boards (default 200)</li>
+ *     <li>{@code -duration}: the measured time, in seconds (default 60)</li>
+ *     <li>{@code -warmup}: the time before measuring starts, in seconds
+ *     (default 10)</li>
+ *     <li>{@code -interval}: the clock interval, in milliseconds (default
+ *     1000, as sent by a DGT clock)</li>
+ *     <li>{@code -move-every}: the number of clock intervals per move (default
+ *     1; a move every 30 seconds or so is more like a real game, but makes
+ *     for few latency samples)</li>
+ *     <li>{@code -threads}: the size of the thread pool (default the number of
+ *     processors)</li>
+ * </ul>
+ *
+ * <p>While running, the message and move rates are printed every second. The
+ * report at the end gives the sustained rates, the move recognition latency
+ * percentiles, the CPU time and heap used per board, and the GC pauses.
+ * Latency is measured from when a move was due to be played until the parser
+ * confirms it, so time spent waiting for a pool thread when the host can't
+ * keep up is included.</p>
+ */
+public class LoadTest {
+    private static final String[] CAPTURES = {"1", "2", "johan"};
+
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder games = new LongAdder();
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+    private final List<Long> gcPauses = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean measuring;
+
+    private int boardCount = 200;
+    private int duration = 60;
+    private int warmup = 10;
+    private long interval = 1000;
+    private int moveEvery = 1;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public static void main(String[] args) throws InterruptedException {
+        LoadTest test = new LoadTest();
+        for(int i = 0; i < args.length; i += 2) {
+            if(i + 1 == args.length)
+                usage("Missing value for " + args[i]);
+            int value;
+            try {
+                value = Integer.parseInt(args[i + 1]);
+            }
+            catch(NumberFormatException e) {
+                usage("Invalid value for " + args[i] + ": " + args[i + 1]);
+                return;
+            }
+            if(value < (args[i].equals("-warmup")? 0: 1))
+                usage("Invalid value for " + args[i] + ": " + value);
+            switch(args[i]) {
+                case "-boards": test.boardCount = value; break;
+                case "-duration": test.duration = value; break;
+                case "-warmup": test.warmup = value; break;
+                case "-interval": test.interval = value; break;
+                case "-move-every": test.moveEvery = value; break;
+                case "-threads": test.threads = value; break;
+                default: usage("Unknown option " + args[i]);
+            }
+        }
+        test.run();
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: LoadTest [-boards n] [-duration s] [-warmup s] [-interval ms] [-move-every n] [-threads n]");
+        System.exit(2);
+    }
+
+    private void run() throws InterruptedException {
+        List<Game> replayed = new ArrayList<>();
+        for(String capture: CAPTURES)
+            replayed.addAll(Captures.games(Captures.messages(Captures.chunks(capture))));
+        watchGc();
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapBefore = usedHeap(memory);
+        Random random = new Random(1);
+        List<SimulatedBoard> boards = new ArrayList<>();
+        for(int i = 0; i < boardCount; i++)
+            boards.add(new SimulatedBoard(replayed, random.nextInt(replayed.size()), random.nextLong()));
+        long heapBoards = usedHeap(memory);
+
+        System.out.printf("%d boards, a clock update every %d ms and a move every %d, %d threads%n",
+                boardCount, interval, moveEvery, threads);
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(threads);
+        pool.prestartAllCoreThreads();
+        long start = System.nanoTime() + interval * 1_000_000;
+        // The boards are spread evenly over the first interval, as the clocks
+        // of a real hall aren't started in step. The delays are relative to
+        // the same start time, so that the executor runs each board when it's
+        // due.
+        for(int i = 0; i < boardCount; i++) {
+            SimulatedBoard board = boards.get(i);
+            board.due = start + interval * 1_000_000 * i / boardCount;
+            pool.scheduleAtFixedRate(board, board.due - System.nanoTime(), interval * 1_000_000, TimeUnit.NANOSECONDS);
+        }
+
+        Thread.sleep(warmup * 1000L);
+        long cpuStart = processCpuTime();
+        long messagesStart = messages.sum();
+        long movesStart = moves.sum();
+        long gamesStart = games.sum();
+        gcPauses.clear();
+        measuring = true;
+        long measureStart = System.nanoTime();
+        long lastMessages = messagesStart;
+        long lastMoves = movesStart;
+        for(int second = 1; second <= duration && error.get() == null; second++) {
+            Thread.sleep(Math.max(0, (measureStart + second * 1_000_000_000L - System.nanoTime()) / 1_000_000));
+            long m = messages.sum();
+            long mv = moves.sum();
+            System.out.printf("%4d s: %8d messages/s %6d moves/s%n", second, m - lastMessages, mv - lastMoves);
+            lastMessages = m;
+            lastMoves = mv;
+        }
+        measuring = false;
+        double elapsed = (System.nanoTime() - measureStart) / 1e9;
+        long cpu = processCpuTime() - cpuStart;
+        long messageCount = messages.sum() - messagesStart;
+        long moveCount = moves.sum() - movesStart;
+        long gameCount = games.sum() - gamesStart;
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+
+        if(error.get() != null) {
+            System.err.println("A board failed:");
+            error.get().printStackTrace();
+            System.exit(1);
+        }
+
+        // The parsers now hold a game in progress each, unlike right after
+        // setting up.
+        long heapEnd = usedHeap(memory);
+
+        long[] latencies = mergeLatencies(boards);
+        System.out.println();
+        System.out.printf("Throughput:  %.0f messages/s, %.1f moves/s, %d games completed in %.1f s%n",
+                messageCount / elapsed, moveCount / elapsed, gameCount, elapsed);
+        System.out.printf("Latency:     %d moves, p50 %s, p90 %s, p99 %s, p99.9 %s, max %s%n",
+                latencies.length, percentile(latencies, 0.5), percentile(latencies, 0.9),
+                percentile(latencies, 0.99), percentile(latencies, 0.999),
+                percentile(latencies, 1));
+        if(cpu >= 0) {
+            double perBoard = cpu / 1e9 / elapsed / boardCount;
+            System.out.printf("CPU:         %.1f%% of one core per board, about %.0f boards per core at this rate%n",
+                    perBoard * 100, 1 / perBoard);
+        }
+        System.out.printf("Heap:        %s per board set up, %s per board with games in progress%n",
+                bytes((heapBoards - heapBefore) / boardCount), bytes((heapEnd - heapBefore) / boardCount));
+        long[] pauses;
+        synchronized(gcPauses) {
+            pauses = new long[gcPauses.size()];
+            for(int i = 0; i < pauses.length; i++)
+                pauses[i] = gcPauses.get(i);
+        }
+        Arrays.sort(pauses);
+        long pauseTotal = 0;
+        for(long pause: pauses)
+            pauseTotal += pause;
+        System.out.printf("GC:          %d pauses, %d ms in total (%.2f%% of the time), p99 %d ms, max %d ms%n",
+                pauses.length, pauseTotal, pauseTotal / 10.0 / elapsed,
+                pauses.length == 0? 0: pauses[Math.min(pauses.length - 1, (int) (pauses.length * 0.99))],
+                pauses.length == 0? 0: pauses[pauses.length - 1]);
+    }
+
+    /**
+     * A board with its driver and parser. Each run is one clock interval:
+     * the next move is played if it's time for one, and the clock is
+     * updated.
+     */
+    private class SimulatedBoard implements Runnable, MoveParser.MoveListener {
+        private final List<Game> replayed;
+        private final BoardSimulator simulator;
+        private final MoveParser parser;
+        private final DgtDriver driver;
+        private int game;
+        private int ply;
+        private int tick;
+        private Duration white = Duration.ofMinutes(90);
+        private Duration black = Duration.ofMinutes(90);
+
+        private long due;
+        private long moveDue;
+        private int pendingPly = -1;
+        private long[] latencies = new long[64];
+        private int latencyCount;
+
+        SimulatedBoard(List<Game> replayed, int game, long seed) {
+            this.replayed = replayed;
+            this.game = game;
+            parser = new MoveParser(g -> games.increment());
+            parser.setMoveListener(this);
+            DgtDriver[] driver = new DgtDriver[1];
+            simulator = new BoardSimulator(bytes -> driver[0].gotBytes(bytes));
+            simulator.setRandom(new Random(seed));
+            this.driver = driver[0] = new DgtDriver(msg -> {
+                messages.increment();
+                parser.gotMessage(msg);
+            }, simulator::gotBytes);
+            simulator.setUp(new Board());
+            this.driver.reset();
+            this.driver.board();
+            this.driver.updateNice();
+        }
+
+        @Override
+        public void run() {
+            try {
+                if(tick++ % moveEvery == 0)
+                    step();
+                clockTick();
+                due += interval * 1_000_000;
+            }
+            catch(RuntimeException | Error e) {
+                // Throwing cancels this board only, so the test is stopped
+                // instead.
+                error.compareAndSet(null, e);
+                throw e;
+            }
+        }
+
+        private void step() {
+            Game current = replayed.get(game);
+            if(ply < current.moves.size()) {
+                PlayedMove move = current.moves.get(ply);
+                moveDue = due;
+                pendingPly = ply;
+                simulator.play(move.move);
+                ply++;
+            }
+            else {
+                // The finished game is signalled with the kings, if it has a
+                // result, and the next game set up on the next move.
+                if(current.result != null && ply == current.moves.size()) {
+                    simulator.signalResult(current.result);
+                    ply++;
+                    return;
+                }
+                if(current.result == null)
+                    parser.endGame();
+                game = (game + 1) % replayed.size();
+                ply = 0;
+                white = black = Duration.ofMinutes(90);
+                simulator.setUp(new Board());
+            }
+        }
+
+        private void clockTick() {
+            boolean whiteToMove = ply % 2 == 0;
+            Duration elapsed = Duration.ofMillis(interval);
+            if(whiteToMove)
+                white = white.compareTo(elapsed) > 0? white.minus(elapsed): Duration.ZERO;
+            else
+                black = black.compareTo(elapsed) > 0? black.minus(elapsed): Duration.ZERO;
+            // Connected and running, with the side to move flagged.
+            byte status = (byte) (0x21 | (whiteToMove? 0x08: 0x10));
+            simulator.clock(new BWTime(white, (byte) 0, black, (byte) 0, status));
+        }
+
+        @Override
+        public void moveConfirmed(PlayedMove move, int ply) {
+            moves.increment();
+            if(ply != pendingPly)
+                return;
+            pendingPly = -1;
+            if(!measuring)
+                return;
+            if(latencyCount == latencies.length)
+                latencies = Arrays.copyOf(latencies, latencyCount * 2);
+            latencies[latencyCount++] = System.nanoTime() - moveDue;
+        }
+    }
+
+    private static long[] mergeLatencies(List<SimulatedBoard> boards) {
+        int count = 0;
+        for(SimulatedBoard board: boards)
+            count += board.latencyCount;
+        long[] merged = new long[count];
+        int i = 0;
+        for(SimulatedBoard board: boards) {
+            System.arraycopy(board.latencies, 0, merged, i, board.latencyCount);
+            i += board.latencyCount;
+        }
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    private static String percentile(long[] sorted, double p) {
+        if(sorted.length == 0)
+            return "-";
+        long nanos = sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+        return nanos < 1_000_000? String.format("%.1f us", nanos / 1e3): String.format("%.2f ms", nanos / 1e6);
+    }
+
+    private static String bytes(long n) {
+        return n < 10 * 1024? n + " B": String.format("%.1f KiB", n / 1024.0);
+    }
+
+    private static long usedHeap(MemoryMXBean memory) {
+        /* Several collections, as one full collection doesn't always free
+         * everything. */
+        for(int i = 0; i < 3; i++)
+            System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static long processCpuTime() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if(os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        return -1;
+    }
+
+    /* The collection count and time of the collector beans can't tell one
+     * long pause from many short ones, so the pauses are taken from the
+     * notifications sent after each collection instead. The concurrent
+     * collectors have separate beans for the pauses and the concurrent
+     * cycles, and the latter are left out. */
+    private void watchGc() {
+        NotificationListener listener = (Notification notification, Object handback) -> {
+            if(!measuring || !notification.getType().equals("com.sun.management.gc.notification"))
+                return;
+            CompositeData info = (CompositeData) notification.getUserData();
+            CompositeData gcInfo = (CompositeData) info.get("gcInfo");
+            gcPauses.add((Long) gcInfo.get("duration"));
+        };
+        for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+            if(gc.getName().endsWith("Cycles") || !(gc instanceof NotificationEmitter))
+                continue;
+            ((NotificationEmitter) gc).addNotificationListener(listener, null, null);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.riisholt.dgtdriver.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.riisholt.dgtdriver.game.Board;
+import org.riisholt.dgtdriver.game.Move;
+import org.riisholt.dgtdriver.game.MoveList;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Legal move generation over a fixed set of positions, with and without the
+ * move ordering scores used by {@link MoveList#sort()}, and generation
+ * followed by playing every legal move on a copy of the position.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoveGenerationBenchmark {
+    private List<Board> positions;
+    private MoveList scored;
+    private MoveList unscored;
+
+    @Setup
+    public void setup() {
+        positions = Positions.randomPlayouts(1000);
+        scored = new MoveList(256, true);
+        unscored = new MoveList(256, false);
+    }
+
+    @Benchmark
+    public void legalMovesScored(Blackhole bh) {
+        for(Board board: positions) {
+            board.legalMoves(scored);
+            bh.consume(scored.size());
+        }
+    }
+
+    @Benchmark
+    public void legalMovesUnscored(Blackhole bh) {
+        for(Board board: positions) {
+            board.legalMoves(unscored);
+            bh.consume(unscored.size());
+        }
+    }
+
+    @Benchmark
+    public void legalMovesAndPlay(Blackhole bh) {
+        for(Board board: positions) {
+            board.legalMoves(unscored);
+            for(Move move: unscored) {
+                Board child = new Board(board);
+                child.play(move);
+                bh.consume(child);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.riisholt.dgtdriver.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.riisholt.dgtdriver.DgtDriver;
+import org.riisholt.dgtdriver.DgtMessage;
+import org.riisholt.dgtdriver.moveparser.MoveParser;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reconstruction of the games in a captured session. The {@code messages}
+ * benchmark feeds already decoded messages to the {@link MoveParser}, which
+ * isolates the parser itself; {@code endToEnd} starts from the raw bytes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoveParserBenchmark {
+    @Param({"1", "2", "johan"})
+    public String capture;
+
+    private List<byte[]> chunks;
+    private List<DgtMessage> messages;
+
+    @Setup
+    public void setup() {
+        chunks = Captures.chunks(capture);
+        messages = Captures.messages(chunks);
+    }
+
+    @Benchmark
+    public void messages(Blackhole bh) {
+        MoveParser parser = new MoveParser(bh::consume);
+        for(DgtMessage msg: messages)
+            parser.gotMessage(msg);
+        parser.endGame();
+    }
+
+    @Benchmark
+    public void endToEnd(Blackhole bh) {
+        MoveParser parser = new MoveParser(bh::consume);
+        DgtDriver driver = new DgtDriver(parser::gotMessage, null);
+        for(byte[] chunk: chunks)
+            driver.gotBytes(chunk);
+        parser.endGame();
+    }
+}
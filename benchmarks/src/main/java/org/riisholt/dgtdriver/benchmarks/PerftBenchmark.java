@@ -0,0 +1,71 @@
+package org.riisholt.dgtdriver.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.riisholt.dgtdriver.game.Board;
+import org.riisholt.dgtdriver.game.Perft;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Perft over the standard positions, serially and with the root moves split
+ * across a fork-join pool. The {@code nodes} counter is reported alongside
+ * the invocation rate, which makes JMH print throughput in nodes per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PerftBenchmark {
+    @Param({"initial", "kiwipete", "position3", "position4", "position5", "position6"})
+    public String position;
+
+    @Param({"4"})
+    public int depth;
+
+    private Board board;
+    private ForkJoinPool pool;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Nodes {
+        public long nodes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            nodes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        for(Perft.Position p: Perft.standardPositions()) {
+            if(p.name.equals(position))
+                board = p.board();
+        }
+        if(board == null)
+            throw new IllegalArgumentException("Unknown position " + position);
+        pool = new ForkJoinPool();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public long serial(Nodes counter) {
+        long nodes = Perft.perft(board, depth);
+        counter.nodes += nodes;
+        return nodes;
+    }
+
+    @Benchmark
+    public long parallel(Nodes counter) {
+        long nodes = Perft.parallelPerft(board, depth, pool);
+        counter.nodes += nodes;
+        return nodes;
+    }
+}
@@ -0,0 +1,43 @@
+package org.riisholt.dgtdriver.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.riisholt.dgtdriver.moveparser.Game;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting of a reconstructed game as PGN, with and without clock
+ * comments, and as a UCI move list.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PgnBenchmark {
+    @Param({"1", "2", "johan"})
+    public String capture;
+
+    private Game game;
+
+    @Setup
+    public void setup() {
+        game = Captures.games(Captures.messages(Captures.chunks(capture))).get(0);
+    }
+
+    @Benchmark
+    public String pgn() {
+        return game.pgn(false);
+    }
+
+    @Benchmark
+    public String pgnWithClock() {
+        return game.pgn(true);
+    }
+
+    @Benchmark
+    public String uci() {
+        return game.uci();
+    }
+}
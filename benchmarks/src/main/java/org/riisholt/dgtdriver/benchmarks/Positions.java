@@ -0,0 +1,39 @@
+package org.riisholt.dgtdriver.benchmarks;
+
+import org.riisholt.dgtdriver.game.Board;
+import org.riisholt.dgtdriver.game.MoveList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Position sets shared by the benchmarks.
+ */
+final class Positions {
+    private Positions() {}
+
+    /**
+     * Positions from random playouts from the initial position. The seed is
+     * fixed, so every run (and every commit) benchmarks the same positions.
+     *
+     * @param count The number of positions to generate
+     * @return The generated positions
+     */
+    static List<Board> randomPlayouts(int count) {
+        Random random = new Random(0x5eedL);
+        MoveList moves = new MoveList();
+        List<Board> positions = new ArrayList<>(count);
+        Board board = new Board();
+        while(positions.size() < count) {
+            board.legalMoves(moves);
+            if(moves.isEmpty() || random.nextInt(80) == 0) {
+                board = new Board();
+                continue;
+            }
+            board.play(moves.get(random.nextInt(moves.size())));
+            positions.add(new Board(board));
+        }
+        return positions;
+    }
+}
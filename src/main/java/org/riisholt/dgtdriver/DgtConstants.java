@@ -225,4 +225,35 @@ public class DgtConstants {
                 throw new DgtProtocolException(String.format("Invalid piece code %x", dgtCode));
         }
     }
+
+    private static final byte[] WHITE_CODES = {WPAWN, WKNIGHT, WBISHOP, WROOK, WQUEEN, WKING};
+    private static final byte[] BLACK_CODES = {BPAWN, BKNIGHT, BBISHOP, BROOK, BQUEEN, BKING};
+
+    /**
+     * Converts a square in the coordinate system used by the game code to a
+     * DGT square code. The inverse of {@link #dgtCodeToSquare(int)}.
+     *
+     * @param square A square code from 0 (A1) to 63 (H8).
+     * @return The DGT square code
+     * @throws IllegalArgumentException If the square is outside of [0,63].
+     */
+    public static int squareToDgtCode(int square) {
+        if(square >= 64 || square < 0)
+            throw new IllegalArgumentException(String.format("Invalid square %d", square));
+        return (7 - square / 8)*8 + square % 8;
+    }
+
+    /**
+     * Converts a game code role and colour to a DGT piece code. The inverse
+     * of {@link #dgtCodeToColor(int)} and {@link #dgtCodeToRole(int)}.
+     *
+     * @param color True for white, false for black
+     * @param role The role, or null for an empty square
+     * @return The DGT piece code
+     */
+    public static byte pieceToDgtCode(boolean color, Role role) {
+        if(role == null)
+            return EMPTY;
+        return (color? WHITE_CODES: BLACK_CODES)[role.index];
+    }
 }
@@ -0,0 +1,260 @@
+package org.riisholt.dgtdriver;
+
+import org.riisholt.dgtdriver.game.Board;
+import org.riisholt.dgtdriver.game.Role;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.riisholt.dgtdriver.DgtConstants.*;
+
+/**
+ * <p>Encodes messages into the frames sent by the board, the reverse of the
+ * decoding done by {@link DgtDriver}. This is useful for testing and
+ * simulating boards, where frames can be written straight into a buffer
+ * without going through a serial port:</p>
+ *
+ * <pre>
+ * ByteBuffer buffer = ByteBuffer.allocate(1024);
+ * DgtMessageEncoder.fieldUpdate(28, true, Role.PAWN, buffer); // A white pawn on e4.
+ * DgtMessageEncoder.encode(clockInfo, buffer);
+ * driver.gotBytes(Arrays.copyOf(buffer.array(), buffer.position()));
+ * </pre>
+ *
+ * <p>A frame is the message id with the high bit set, then the length of the
+ * frame, header included, as two 7-bit bytes, most significant first, and
+ * then the message data. Decoding and encoding a message gives back the same
+ * message, but not always the same bytes, as the decoded messages don't keep
+ * the bits of the frame that aren't used.</p>
+ *
+ * <p>All the messages sent by chess boards can be encoded: {@link BoardDump},
+ * {@link BWTime}, {@link ClockAck}, {@link FieldUpdate}, {@link EEMoves},
+ * {@link Busadress}, {@link SerialnrMessage}, {@link LongSerialnrMessage},
+ * {@link TrademarkMessage} and {@link VersionMessage}.</p>
+ */
+public class DgtMessageEncoder {
+    private DgtMessageEncoder() {}
+
+    /**
+     * Computes the length of the frame for a message.
+     *
+     * @param msg The message
+     * @return The length of the frame, header included
+     * @throws IllegalArgumentException If the message can't be encoded
+     */
+    public static int encodedLength(DgtMessage msg) {
+        return 3 + dataLength(msg);
+    }
+
+    /**
+     * Encodes a message into a new array.
+     *
+     * @param msg The message
+     * @return The frame
+     * @throws IllegalArgumentException If the message can't be encoded
+     */
+    public static byte[] encode(DgtMessage msg) {
+        byte[] bytes = new byte[encodedLength(msg)];
+        encode(msg, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * Encodes a message at the position of a buffer, and advances the
+     * position past the frame. If there isn't room for the whole frame,
+     * nothing is written.
+     *
+     * @param msg The message
+     * @param buffer The buffer to write to
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If the message can't be encoded
+     * @throws BufferOverflowException If the frame doesn't fit in the buffer
+     */
+    public static int encode(DgtMessage msg, ByteBuffer buffer) {
+        int length = encodedLength(msg);
+        if(msg instanceof BoardDump)
+            boardDump(((BoardDump) msg).board, buffer);
+        else if(msg instanceof FieldUpdate) {
+            FieldUpdate update = (FieldUpdate) msg;
+            fieldUpdate(update.square, update.color, update.role, buffer);
+        }
+        else if(msg instanceof BWTime) {
+            BWTime time = (BWTime) msg;
+            byte right = clockByte(time.rightFlags, time.right);
+            byte left = clockByte(time.leftFlags, time.left);
+            header(DGT_BWTIME, 7, buffer);
+            buffer.put(right)
+                  .put(bcd(time.right.toMinutes() % 60))
+                  .put(bcd(time.right.getSeconds() % 60))
+                  .put(left)
+                  .put(bcd(time.left.toMinutes() % 60))
+                  .put(bcd(time.left.getSeconds() % 60))
+                  .put(time.clockStatusFlags);
+        }
+        else if(msg instanceof ClockAck) {
+            /* The acknowledgement is spread over the BWTime frame, with the
+             * high bits of the four ack bytes in the nibbles that would be
+             * the flags, and 0x0a in the nibbles that would be the hours. */
+            ClockAck ack = (ClockAck) msg;
+            header(DGT_BWTIME, 7, buffer);
+            buffer.put((byte) (0x0a | (ack.ack2 & 0x80) >> 3 | (ack.ack3 & 0x80) >> 2))
+                  .put((byte) (ack.ack0 & 0x7f))
+                  .put((byte) (ack.ack1 & 0x7f))
+                  .put((byte) (0x0a | (ack.ack0 & 0x80) >> 3 | (ack.ack1 & 0x80) >> 2))
+                  .put((byte) (ack.ack2 & 0x7f))
+                  .put((byte) (ack.ack3 & 0x7f))
+                  .put((byte) 0);
+        }
+        else if(msg instanceof EEMoves)
+            eeMoves((EEMoves) msg, length, buffer);
+        else if(msg instanceof Busadress) {
+            int address = ((Busadress) msg).address;
+            header(DGT_BUSADRES, 2, buffer);
+            buffer.put((byte) (address >> 7)).put((byte) (address & 0x7f));
+        }
+        else if(msg instanceof VersionMessage) {
+            VersionMessage version = (VersionMessage) msg;
+            header(DGT_VERSION, 2, buffer);
+            buffer.put(version.major).put(version.minor);
+        }
+        else {
+            byte[] value = ((StringMessage) msg).value.getBytes(StandardCharsets.US_ASCII);
+            header(stringId((StringMessage) msg), value.length, buffer);
+            buffer.put(value);
+        }
+        return length;
+    }
+
+    /**
+     * Encodes a board dump.
+     *
+     * @param board The position on the board. Only the pieces are encoded.
+     * @param buffer The buffer to write to
+     * @throws BufferOverflowException If the frame doesn't fit in the buffer
+     */
+    public static void boardDump(Board board, ByteBuffer buffer) {
+        header(DGT_BOARD_DUMP, 64, buffer);
+        // The board sends the squares from A8 to H1.
+        for(int rank = 7; rank >= 0; rank--) {
+            for(int file = 0; file < 8; file++) {
+                int square = rank*8 + file;
+                Role role = board.roleAt(square);
+                buffer.put(pieceToDgtCode(role == null || board.whiteAt(square), role));
+            }
+        }
+    }
+
+    /**
+     * Encodes a field update.
+     *
+     * @param square The square updated, in the coordinates of {@link Board}
+     * @param color Is the piece placed on the square white?
+     * @param role The piece placed on the square, or null if it's now empty
+     * @param buffer The buffer to write to
+     * @throws IllegalArgumentException If the square is outside of [0,63]
+     * @throws BufferOverflowException If the frame doesn't fit in the buffer
+     */
+    public static void fieldUpdate(int square, boolean color, Role role, ByteBuffer buffer) {
+        int dgtCode = squareToDgtCode(square);
+        header(DGT_FIELD_UPDATE, 2, buffer);
+        buffer.put((byte) dgtCode).put(pieceToDgtCode(color, role));
+    }
+
+    /**
+     * Encodes a frame with the given id and data, for data that's already in
+     * the board's format.
+     *
+     * @param id The message id, without the high bit
+     * @param data The message data
+     * @param buffer The buffer to write to
+     * @throws BufferOverflowException If the frame doesn't fit in the buffer
+     */
+    public static void frame(byte id, byte[] data, ByteBuffer buffer) {
+        header(id, data.length, buffer);
+        buffer.put(data);
+    }
+
+    private static int dataLength(DgtMessage msg) {
+        if(msg instanceof BoardDump)
+            return 64;
+        else if(msg instanceof BWTime || msg instanceof ClockAck)
+            return 7;
+        else if(msg instanceof FieldUpdate || msg instanceof Busadress || msg instanceof VersionMessage)
+            return 2;
+        else if(msg instanceof EEMoves) {
+            int length = 0;
+            for(EEMoves.EEEvent event: ((EEMoves) msg).events) {
+                if(event instanceof EEMoves.SimpleEvent)
+                    length += 1;
+                else if(event instanceof EEMoves.FieldEvent)
+                    length += 2;
+                else
+                    length += 3;
+            }
+            return length;
+        }
+        else if(msg instanceof StringMessage) {
+            stringId((StringMessage) msg);
+            return ((StringMessage) msg).value.getBytes(StandardCharsets.US_ASCII).length;
+        }
+        throw new IllegalArgumentException("Can't encode " + (msg == null? "null": msg.getClass().getName()));
+    }
+
+    private static byte stringId(StringMessage msg) {
+        if(msg instanceof SerialnrMessage)
+            return DGT_SERIALNR;
+        else if(msg instanceof LongSerialnrMessage)
+            return DGT_LONG_SERIALNR;
+        else if(msg instanceof TrademarkMessage)
+            return DGT_TRADEMARK;
+        throw new IllegalArgumentException("Can't encode " + msg.getClass().getName());
+    }
+
+    private static void header(byte id, int dataLength, ByteBuffer buffer) {
+        int length = dataLength + 3;
+        if(length > 0x3fff)
+            throw new IllegalArgumentException(String.format("Message too long (%d bytes)", length));
+        /* Check that the whole frame fits up front, so that nothing is
+         * written if it doesn't. */
+        if(buffer.remaining() < length)
+            throw new BufferOverflowException();
+        buffer.put((byte) (id | 0x80))
+              .put((byte) (length >> 7))
+              .put((byte) (length & 0x7f));
+    }
+
+    private static void eeMoves(EEMoves moves, int length, ByteBuffer buffer) {
+        header(DGT_EE_MOVES, length - 3, buffer);
+        for(EEMoves.EEEvent event: moves.events) {
+            if(event instanceof EEMoves.SimpleEvent)
+                buffer.put(((EEMoves.SimpleEvent) event).type);
+            else if(event instanceof EEMoves.FieldEvent) {
+                EEMoves.FieldEvent field = (EEMoves.FieldEvent) event;
+                buffer.put((byte) (0x40 | pieceToDgtCode(field.color, field.role)))
+                      .put((byte) squareToDgtCode(field.square));
+            }
+            else {
+                /* Unlike BWTime, the minutes and seconds of the clock events
+                 * are decoded as plain numbers, not BCD. */
+                EEMoves.ClockEvent clock = (EEMoves.ClockEvent) event;
+                buffer.put((byte) ((clock.isLeft? 0x70: 0x60) | clock.time.toHours()))
+                      .put((byte) (clock.time.toMinutes() % 60))
+                      .put((byte) (clock.time.getSeconds() % 60));
+            }
+        }
+    }
+
+    private static byte clockByte(byte flags, Duration time) {
+        if(time.isNegative() || time.toHours() > 0x0f)
+            throw new IllegalArgumentException("Clock time out of range: " + time);
+        if((flags & 0xf0) != 0)
+            throw new IllegalArgumentException(String.format("Invalid clock flags 0x%x", flags));
+        return (byte) (flags << 4 | time.toHours());
+    }
+
+    private static byte bcd(long n) {
+        return (byte) ((n / 10) << 4 | n % 10);
+    }
+}
@@ -108,7 +108,7 @@ public class EEMoves implements DgtMessage {
         ArrayList<EEEvent> events = new ArrayList<>(data.length);
         for(int i = 0; i < data.length;) {
             byte value = data[i];
-            if((0x6a <= value && value <= 0x6f) || (0x7a <= value && value <= 07f) || value == 0x00) {
+            if((0x6a <= value && value <= 0x6f) || (0x7a <= value && value <= 0x7f) || value == 0x00) {
                 events.add(new SimpleEvent(value));
                 i++;
             }
@@ -230,6 +230,12 @@ public class EEMoves implements DgtMessage {
           */
         public final int square;
 
+        /**
+         * Is the piece placed on the field white? Like {@link
+         * FieldUpdate#color}, this is {@code true} if a piece was removed.
+         */
+        public final boolean color;
+
         /**
          * The kind of piece placed on the field, or {@code null} if a piece
          * was removed.
@@ -239,6 +245,7 @@ public class EEMoves implements DgtMessage {
         /** Construct an object from its byte encoding. */
         FieldEvent(byte piece, byte field) throws DgtProtocolException {
             square = DgtConstants.dgtCodeToSquare(field);
+            color = DgtConstants.dgtCodeToColor(piece);
             role = DgtConstants.dgtCodeToRole(piece);
         }
     }
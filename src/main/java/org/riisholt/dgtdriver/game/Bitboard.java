@@ -150,7 +150,7 @@ class Bitboard {
         x = ((x >>  4) & h4) | ((x & h4) <<  4);
         x = ((x >>  8) & v1) | ((x & v1) <<  8);
         x = ((x >> 16) & v2) | ((x & v2) << 16);
-        x = ( x >> 32)       | ( x       << 32);
+        x = ( x >>> 32)      | ( x       << 32);
         return x;
     }
 }
@@ -4,17 +4,31 @@ import java.util.Map;
 import java.util.HashMap;
 
 public final class Board {
-    long pawns;
-    long knights;
-    long bishops;
-    long rooks;
-    long queens;
-    long kings;
-
-    long white;
-    long black;
+    // Piece bitboards indexed by Role.index, followed by the bitboards of
+    // black and white pieces. Keeping them in one array makes updates a
+    // plain indexed XOR, and copying and comparing boards bulk operations.
+    final long bitboards[] = new long[8];
+    static final int PAWNS = 0;
+    static final int KNIGHTS = 1;
+    static final int BISHOPS = 2;
+    static final int ROOKS = 3;
+    static final int QUEENS = 4;
+    static final int KINGS = 5;
+    static final int BLACK = 6;
+    static final int WHITE = 7;
+
     long occupied;
 
+    // Piece on each square, kept in sync with the bitboards so that looking
+    // up the piece on a square is a single array read. Empty squares are 0,
+    // otherwise the low three bits are Role.index + 1 and WHITE_PIECE is set
+    // for white pieces.
+    final byte mailbox[] = new byte[64];
+    static final int WHITE_PIECE = 8;
+    private static final Role ROLES[] = {
+        null, Role.PAWN, Role.KNIGHT, Role.BISHOP, Role.ROOK, Role.QUEEN, Role.KING
+    };
+
     boolean turn;
     int epSquare;
     long castlingRights;
@@ -22,62 +36,64 @@ public final class Board {
     int incrementalHash;
 
     public Board() {
-        this.pawns = 0xff00000000ff00L;
-        this.knights = 0x4200000000000042L;
-        this.bishops = 0x2400000000000024L;
-        this.rooks = 0x8100000000000081L;
-        this.queens = 0x800000000000008L;
-        this.kings = 0x1000000000000010L;
-
-        this.white = 0xffffL;
-        this.black = 0xffff000000000000L;
+        this.bitboards[PAWNS] = 0xff00000000ff00L;
+        this.bitboards[KNIGHTS] = 0x4200000000000042L;
+        this.bitboards[BISHOPS] = 0x2400000000000024L;
+        this.bitboards[ROOKS] = 0x8100000000000081L;
+        this.bitboards[QUEENS] = 0x800000000000008L;
+        this.bitboards[KINGS] = 0x1000000000000010L;
+
+        this.bitboards[WHITE] = 0xffffL;
+        this.bitboards[BLACK] = 0xffff000000000000L;
         this.occupied = 0xffff00000000ffffL;
 
         this.turn = true;
         this.epSquare = 0;
-        this.castlingRights = this.rooks;
+        this.castlingRights = this.bitboards[ROOKS];
 
+        fillMailbox();
         this.incrementalHash = ZobristHash.hashPieces(this) ^ ZobristHash.hashTurn(this);
     }
 
     public Board(Board board) {
-        this.pawns = board.pawns;
-        this.knights = board.knights;
-        this.bishops = board.bishops;
-        this.rooks = board.rooks;
-        this.queens = board.queens;
-        this.kings = board.kings;
-
-        this.white = board.white;
-        this.black = board.black;
+        copyFrom(board);
+    }
+
+    public void copyFrom(Board board) {
+        // Overwrites this board with the state of another, so that a board
+        // can be reused rather than allocating a copy. The hash is copied
+        // as is, since it's fully determined by the copied state.
+        System.arraycopy(board.bitboards, 0, this.bitboards, 0, 8);
         this.occupied = board.occupied;
 
         this.turn = board.turn;
         this.epSquare = board.epSquare;
         this.castlingRights = board.castlingRights;
 
-        this.incrementalHash = ZobristHash.hashPieces(this) ^ ZobristHash.hashTurn(this);
+        System.arraycopy(board.mailbox, 0, this.mailbox, 0, 64);
+        this.incrementalHash = board.incrementalHash;
     }
 
     Board(long pawns, long knights, long bishops, long rooks, long queens, long kings,
           long white, long black,
           boolean turn, int epSquare, long castlingRights) {
 
-        this.pawns = pawns;
-        this.knights = knights;
-        this.bishops = bishops;
-        this.rooks = rooks;
-        this.queens = queens;
-        this.kings = kings;
+        this.bitboards[PAWNS] = pawns;
+        this.bitboards[KNIGHTS] = knights;
+        this.bitboards[BISHOPS] = bishops;
+        this.bitboards[ROOKS] = rooks;
+        this.bitboards[QUEENS] = queens;
+        this.bitboards[KINGS] = kings;
 
-        this.white = white;
-        this.black = black;
+        this.bitboards[WHITE] = white;
+        this.bitboards[BLACK] = black;
         this.occupied = white | black;
 
         this.turn = turn;
         this.epSquare = epSquare;
         this.castlingRights = castlingRights;
 
+        fillMailbox();
         this.incrementalHash = ZobristHash.hashPieces(this) ^ ZobristHash.hashTurn(this);
     }
 
@@ -85,29 +101,113 @@ public final class Board {
         return new Board(0, 0, 0, 0, 0, 0, 0, 0, true, 0, 0);
     }
 
+    public static Board fromFen(String fen) {
+        // Parses the piece placement, side to move, castling and en passant
+        // fields of a FEN string. The move counters are not tracked by
+        // Board and are ignored. Castling rights may be given as KQkq or as
+        // the files of the castling rooks (Shredder-FEN).
+        String parts[] = fen.trim().split("\\s+");
+        Board board = emptyBoard();
+
+        int rank = 7;
+        int file = 0;
+        for (int i = 0; i < parts[0].length(); i++) {
+            char c = parts[0].charAt(i);
+            if (c == '/') {
+                if (file != 8) throw new IllegalArgumentException("Invalid FEN rank: " + fen);
+                rank--;
+                file = 0;
+            } else if ('1' <= c && c <= '8') {
+                file += c - '0';
+            } else {
+                int index = "pnbrqk".indexOf(Character.toLowerCase(c));
+                if (index == -1 || file > 7 || rank < 0) {
+                    throw new IllegalArgumentException("Invalid FEN piece placement: " + fen);
+                }
+                board.put(Square.square(file, rank), Character.isUpperCase(c), ROLES[index + 1]);
+                file++;
+            }
+        }
+        if (rank != 0 || file != 8) throw new IllegalArgumentException("Invalid FEN piece placement: " + fen);
+
+        if (parts.length > 1 && parts[1].equals("b")) {
+            board.turn = false;
+            board.incrementalHash ^= ZobristHash.POLYGLOT[780];
+        } else if (parts.length > 1 && !parts[1].equals("w")) {
+            throw new IllegalArgumentException("Invalid FEN side to move: " + fen);
+        }
+
+        if (parts.length > 2 && !parts[2].equals("-")) {
+            for (int i = 0; i < parts[2].length(); i++) {
+                char c = parts[2].charAt(i);
+                boolean white = Character.isUpperCase(c);
+                long backRank = Bitboard.RANKS[white ? 0 : 7] & board.byColor(white) & board.bitboards[ROOKS];
+                switch (Character.toLowerCase(c)) {
+                    case 'k':
+                        if (backRank != 0) board.castlingRights |= 1L << Bitboard.msb(backRank);
+                        break;
+                    case 'q':
+                        if (backRank != 0) board.castlingRights |= 1L << Bitboard.lsb(backRank);
+                        break;
+                    default:
+                        if (c < 'A' || ('H' < c && c < 'a') || 'h' < c) {
+                            throw new IllegalArgumentException("Invalid FEN castling rights: " + fen);
+                        }
+                        board.castlingRights |= backRank & Bitboard.FILES[Character.toLowerCase(c) - 'a'];
+                }
+            }
+        }
+
+        if (parts.length > 3 && !parts[3].equals("-")) {
+            String ep = parts[3];
+            if (ep.length() != 2 || ep.charAt(0) < 'a' || 'h' < ep.charAt(0) || (ep.charAt(1) != '3' && ep.charAt(1) != '6')) {
+                throw new IllegalArgumentException("Invalid FEN en passant square: " + fen);
+            }
+            // Like play(), only record the square if a pawn can capture.
+            int sq = Square.square(ep.charAt(0) - 'a', ep.charAt(1) - '1');
+            if ((Bitboard.pawnAttacks(!board.turn, sq) & board.us() & board.bitboards[PAWNS]) != 0) {
+                board.epSquare = sq;
+            }
+        }
+
+        return board;
+    }
+
+    private void fillMailbox() {
+        long occupied = this.occupied;
+        while (occupied != 0) {
+            int sq = Bitboard.lsb(occupied);
+            this.mailbox[sq] = pieceCode(Bitboard.contains(this.bitboards[WHITE], sq), bitboardRoleAt(sq));
+            occupied &= occupied - 1L;
+        }
+    }
+
+    private static byte pieceCode(boolean color, Role role) {
+        return (byte) ((role.index + 1) | (color ? WHITE_PIECE : 0));
+    }
+
+    private Role bitboardRoleAt(int square) {
+        for (int i = PAWNS; i <= KINGS; i++) {
+            if (Bitboard.contains(this.bitboards[i], square)) return ROLES[i + 1];
+        }
+        return null;
+    }
+
     private boolean isOccupied(int square) {
         return Bitboard.contains(this.occupied, square);
     }
 
     public void discard(int square) {
-        if (!isOccupied(square)) return;
-        Role role = roleAt(square);
+        byte piece = this.mailbox[square];
+        if (piece == 0) return;
+        Role role = ROLES[piece & 7];
+        boolean color = (piece & WHITE_PIECE) != 0;
         long mask = 1L << square;
 
-        switch (role) {
-            case PAWN: this.pawns ^= mask; break;
-            case KNIGHT: this.knights ^= mask; break;
-            case BISHOP: this.bishops ^= mask; break;
-            case ROOK: this.rooks ^= mask; break;
-            case QUEEN: this.queens ^= mask; break;
-            case KING: this.kings ^= mask; break;
-        }
-
-        boolean color = whiteAt(square);
-        if (color) this.white ^= mask;
-        else this.black ^= mask;
-
+        this.bitboards[role.index] ^= mask;
+        this.bitboards[color ? WHITE : BLACK] ^= mask;
         this.occupied ^= mask;
+        this.mailbox[square] = 0;
         this.incrementalHash ^= ZobristHash.hashPiece(square, color, role);
     }
 
@@ -116,40 +216,32 @@ public final class Board {
 
         long mask = 1L << square;
 
-        switch (role) {
-            case PAWN: this.pawns ^= mask; break;
-            case KNIGHT: this.knights ^= mask; break;
-            case BISHOP: this.bishops ^= mask; break;
-            case ROOK: this.rooks ^= mask; break;
-            case QUEEN: this.queens ^= mask; break;
-            case KING: this.kings ^= mask; break;
-        }
-
-        if (color) this.white ^= mask;
-        else this.black ^= mask;
-
+        this.bitboards[role.index] ^= mask;
+        this.bitboards[color ? WHITE : BLACK] ^= mask;
         this.occupied ^= mask;
+        this.mailbox[square] = pieceCode(color, role);
         this.incrementalHash ^= ZobristHash.hashPiece(square, color, role);
     }
 
     public Role roleAt(int square) {
-        if (Bitboard.contains(this.pawns, square)) return Role.PAWN;
-        if (Bitboard.contains(this.knights, square)) return Role.KNIGHT;
-        if (Bitboard.contains(this.bishops, square)) return Role.BISHOP;
-        if (Bitboard.contains(this.rooks, square)) return Role.ROOK;
-        if (Bitboard.contains(this.queens, square)) return Role.QUEEN;
-        if (Bitboard.contains(this.kings, square)) return Role.KING;
-        return null;
+        return ROLES[this.mailbox[square] & 7];
     }
 
     public boolean whiteAt(int square) {
-        return Bitboard.contains(this.white, square);
+        return (this.mailbox[square] & WHITE_PIECE) != 0;
     }
 
     public int zobristHash() {
         return this.incrementalHash ^ ZobristHash.hashCastling(this) ^ ZobristHash.hashEnPassant(this);
     }
 
+    public int pieceHash() {
+        // Hash of the piece placement only, equal to
+        // ZobristHash.hashPieces(this) but without recomputing it. Boards
+        // with an equalSetup() have the same pieceHash().
+        return this.turn ? this.incrementalHash ^ ZobristHash.POLYGLOT[780] : this.incrementalHash;
+    }
+
     public Map<Integer, Piece> pieceMap() {
         HashMap<Integer, Piece> map = new HashMap<Integer, Piece>();
         long occupied = this.occupied;
@@ -167,7 +259,7 @@ public final class Board {
         switch (move.type) {
             case Move.NORMAL:
                 if (move.role == Role.PAWN && Math.abs(move.from - move.to) == 16) {
-                    long theirPawns = them() & this.pawns;
+                    long theirPawns = them() & this.bitboards[PAWNS];
                     if (theirPawns != 0) {
                         int sq = move.from + (this.turn ? 8 : -8);
                         if ((Bitboard.pawnAttacks(this.turn, sq) & theirPawns) != 0) {
@@ -213,6 +305,10 @@ public final class Board {
         this.incrementalHash ^= ZobristHash.POLYGLOT[780];
     }
 
+    public long occupied() {
+        return this.occupied;
+    }
+
     long us() {
         return byColor(this.turn);
     }
@@ -222,17 +318,17 @@ public final class Board {
     }
 
     long byColor(boolean white) {
-        return white ? this.white : this.black;
+        return this.bitboards[white ? WHITE : BLACK];
     }
 
     private int king(boolean white) {
-        return Bitboard.lsb(this.kings & byColor(white));
+        return Bitboard.lsb(this.bitboards[KINGS] & byColor(white));
     }
 
     private long sliderBlockers(int king) {
         long snipers = them() & (
-            Bitboard.rookAttacks(king, 0) & (this.rooks ^ this.queens) |
-            Bitboard.bishopAttacks(king, 0) & (this.bishops ^ this.queens));
+            Bitboard.rookAttacks(king, 0) & (this.bitboards[ROOKS] ^ this.bitboards[QUEENS]) |
+            Bitboard.bishopAttacks(king, 0) & (this.bitboards[BISHOPS] ^ this.bitboards[QUEENS]));
 
         long blockers = 0;
 
@@ -256,35 +352,316 @@ public final class Board {
 
     private long attacksTo(int sq, boolean attacker, long occupied) {
         return byColor(attacker) & (
-            Bitboard.rookAttacks(sq, occupied) & (this.rooks ^ this.queens) |
-            Bitboard.bishopAttacks(sq, occupied) & (this.bishops ^ this.queens) |
-            Bitboard.KNIGHT_ATTACKS[sq] & this.knights |
-            Bitboard.KING_ATTACKS[sq] & this.kings |
-            Bitboard.pawnAttacks(!attacker, sq) & this.pawns);
+            Bitboard.rookAttacks(sq, occupied) & (this.bitboards[ROOKS] ^ this.bitboards[QUEENS]) |
+            Bitboard.bishopAttacks(sq, occupied) & (this.bitboards[BISHOPS] ^ this.bitboards[QUEENS]) |
+            Bitboard.KNIGHT_ATTACKS[sq] & this.bitboards[KNIGHTS] |
+            Bitboard.KING_ATTACKS[sq] & this.bitboards[KINGS] |
+            Bitboard.pawnAttacks(!attacker, sq) & this.bitboards[PAWNS]);
+    }
+
+    private long attackedBy(boolean attacker, long occupied) {
+        // All squares attacked by one side, given the occupancy.
+        long them = byColor(attacker);
+        long attacked = 0;
+
+        long pawns = them & this.bitboards[PAWNS];
+        if (attacker) {
+            attacked |= ((pawns & ~Bitboard.FILES[0]) << 7) | ((pawns & ~Bitboard.FILES[7]) << 9);
+        } else {
+            attacked |= ((pawns & ~Bitboard.FILES[0]) >>> 9) | ((pawns & ~Bitboard.FILES[7]) >>> 7);
+        }
+
+        long knights = them & this.bitboards[KNIGHTS];
+        while (knights != 0) {
+            attacked |= Bitboard.KNIGHT_ATTACKS[Bitboard.lsb(knights)];
+            knights &= knights - 1L;
+        }
+
+        long diagonal = them & (this.bitboards[BISHOPS] ^ this.bitboards[QUEENS]);
+        while (diagonal != 0) {
+            attacked |= Bitboard.bishopAttacks(Bitboard.lsb(diagonal), occupied);
+            diagonal &= diagonal - 1L;
+        }
+
+        long orthogonal = them & (this.bitboards[ROOKS] ^ this.bitboards[QUEENS]);
+        while (orthogonal != 0) {
+            attacked |= Bitboard.rookAttacks(Bitboard.lsb(orthogonal), occupied);
+            orthogonal &= orthogonal - 1L;
+        }
+
+        long kings = them & this.bitboards[KINGS];
+        if (kings != 0) attacked |= Bitboard.KING_ATTACKS[Bitboard.lsb(kings)];
+
+        return attacked;
     }
 
     public void legalMoves(MoveList moves) {
+        // Generates only legal moves: pinned pieces are restricted to the
+        // line through the king up front, and the king only moves to
+        // squares outside the opponent's attack map.
         moves.clear();
 
+        int king = king(this.turn);
+        long checkers = attacksTo(king, !this.turn);
+        long pinned = sliderBlockers(king) & us();
+
+        // The king is removed from the occupancy, so that squares behind it
+        // on the line of a checking slider count as attacked.
+        long attacked = attackedBy(!this.turn, this.occupied ^ (1L << king));
+
         if (this.epSquare != 0) {
-            genEnPassant(moves);
+            genLegalEnPassant(king, moves);
         }
 
+        long target = ~us();
+        if (checkers == 0) {
+            genNonKing(target, king, pinned, moves);
+            genCastling(king, attacked, moves);
+        } else if (!Bitboard.moreThanOne(checkers)) {
+            int checker = Bitboard.lsb(checkers);
+            genNonKing(Bitboard.BETWEEN[king][checker] | checkers, king, pinned, moves);
+        }
+        genKing(king, target & ~attacked, moves);
+    }
+
+    public boolean isLegal(Move move) {
+        // Checks a single move for legality, with the same rules as
+        // legalMoves() but without generating the other moves. The move
+        // must be fully specified: its type, role, capture flag and
+        // promotion all have to match the move legalMoves() would generate.
+        int from = move.from;
+        int to = move.to;
+        if (!Bitboard.contains(us(), from) || roleAt(from) != move.role) return false;
+
         int king = king(this.turn);
+        long attacked = attackedBy(!this.turn, this.occupied ^ (1L << king));
+
+        switch (move.type) {
+            case Move.EN_PASSANT:
+                return
+                    move.role == Role.PAWN && move.capture && move.promotion == null &&
+                    this.epSquare != 0 && to == this.epSquare &&
+                    Bitboard.contains(Bitboard.pawnAttacks(this.turn, from), to) &&
+                    isLegalEnPassant(king, from, to);
+
+            case Move.CASTLING: {
+                if (move.role != Role.KING || move.capture || move.promotion != null || from != king) return false;
+                if (!Bitboard.contains(this.castlingRights & Bitboard.RANKS[this.turn ? 0 : 7] & us(), to)) return false;
+                if (Bitboard.contains(attacked, king)) return false;
+                if ((Bitboard.BETWEEN[king][to] & this.occupied) != 0) return false;
+                int kingTo = Square.combine(to < king ? Square.C1 : Square.G1, king);
+                long kingPath = Bitboard.BETWEEN[king][kingTo] | (1L << kingTo);
+                return (kingPath & attacked) == 0;
+            }
+
+            case Move.NORMAL:
+                break;
+
+            default:
+                return false;
+        }
+
+        if (Bitboard.contains(us(), to) || move.capture != isOccupied(to)) return false;
+
+        // Is the move pseudo-legal?
+        long targets;
+        switch (move.role) {
+            case PAWN: {
+                boolean lastRank = Square.rank(to) == (this.turn ? 7 : 0);
+                if (lastRank != (move.promotion != null)) return false;
+                if (lastRank && (move.promotion == Role.PAWN || move.promotion == Role.KING)) return false;
+                if (move.capture) {
+                    targets = Bitboard.pawnAttacks(this.turn, from);
+                } else {
+                    int single = from + (this.turn ? 8 : -8);
+                    targets = 0;
+                    if (!isOccupied(single)) {
+                        targets = 1L << single;
+                        int rank = Square.rank(from);
+                        if (rank == (this.turn ? 1 : 6)) {
+                            int twice = single + (this.turn ? 8 : -8);
+                            if (!isOccupied(twice)) targets |= 1L << twice;
+                        }
+                    }
+                }
+                break;
+            }
+            case KNIGHT:
+                targets = Bitboard.KNIGHT_ATTACKS[from];
+                break;
+            case BISHOP:
+                targets = Bitboard.bishopAttacks(from, this.occupied);
+                break;
+            case ROOK:
+                targets = Bitboard.rookAttacks(from, this.occupied);
+                break;
+            case QUEEN:
+                targets = Bitboard.queenAttacks(from, this.occupied);
+                break;
+            default:
+                targets = Bitboard.KING_ATTACKS[from];
+                break;
+        }
+        if (move.role != Role.PAWN && move.promotion != null) return false;
+        if (!Bitboard.contains(targets, to)) return false;
+
+        // The king may not move into an attacked square; other pieces must
+        // address any check and stay on the line of a pin.
+        if (move.role == Role.KING) return !Bitboard.contains(attacked, to);
+
         long checkers = attacksTo(king, !this.turn);
-        if (checkers == 0) {
-            long target = ~us();
-            genNonKing(target, moves);
-            genSafeKing(king, target, moves);
-            genCastling(king, moves);
-        } else {
-            genEvasions(king, checkers, moves);
+        if (checkers != 0) {
+            if (Bitboard.moreThanOne(checkers)) return false;
+            int checker = Bitboard.lsb(checkers);
+            if (!Bitboard.contains(Bitboard.BETWEEN[king][checker] | checkers, to)) return false;
         }
+        long pinned = sliderBlockers(king) & us();
+        return Bitboard.contains(pinMask(king, pinned, from), to);
+    }
 
-        long blockers = sliderBlockers(king);
-        if (blockers != 0 || this.epSquare != 0) {
-            moves.retain(m -> isSafe(king, m, blockers));
+    public boolean hasAnyLegalMove() {
+        // Like legalMoves(), but stops at the first legal move found, to
+        // tell checkmate and stalemate apart from other positions. King
+        // moves come first, since they're the cheapest to check.
+        int king = king(this.turn);
+        long attacked = attackedBy(!this.turn, this.occupied ^ (1L << king));
+        if ((Bitboard.KING_ATTACKS[king] & ~us() & ~attacked) != 0) return true;
+
+        long checkers = attacksTo(king, !this.turn);
+        if (Bitboard.moreThanOne(checkers)) return false;
+        long mask = checkers == 0 ? ~us() : Bitboard.BETWEEN[king][Bitboard.lsb(checkers)] | checkers;
+        long pinned = sliderBlockers(king) & us();
+
+        if (hasLegalEnPassant()) return true;
+
+        long pawns = us() & this.bitboards[PAWNS];
+        long capturers = pawns;
+        while (capturers != 0) {
+            int from = Bitboard.lsb(capturers);
+            if ((Bitboard.pawnAttacks(this.turn, from) & them() & mask & pinMask(king, pinned, from)) != 0) return true;
+            capturers &= capturers - 1L;
+        }
+
+        long singleMoves = ~this.occupied & (this.turn ? pawns << 8 : pawns >>> 8);
+        long doubleMoves =
+            ~this.occupied &
+            (this.turn ? (singleMoves << 8) : (singleMoves >>> 8)) &
+            Bitboard.RANKS[this.turn ? 3 : 4];
+        singleMoves &= mask;
+        doubleMoves &= mask;
+        while (singleMoves != 0) {
+            int to = Bitboard.lsb(singleMoves);
+            if (Bitboard.contains(pinMask(king, pinned, to + (this.turn ? -8 : 8)), to)) return true;
+            singleMoves &= singleMoves - 1L;
+        }
+        while (doubleMoves != 0) {
+            int to = Bitboard.lsb(doubleMoves);
+            if (Bitboard.contains(pinMask(king, pinned, to + (this.turn ? -16 : 16)), to)) return true;
+            doubleMoves &= doubleMoves - 1L;
+        }
+
+        long knights = us() & this.bitboards[KNIGHTS] & ~pinned;
+        while (knights != 0) {
+            if ((Bitboard.KNIGHT_ATTACKS[Bitboard.lsb(knights)] & mask) != 0) return true;
+            knights &= knights - 1L;
         }
+
+        long sliders = us() & (this.bitboards[BISHOPS] ^ this.bitboards[ROOKS] ^ this.bitboards[QUEENS]);
+        while (sliders != 0) {
+            int from = Bitboard.lsb(sliders);
+            long targets = 0;
+            if (Bitboard.contains(this.bitboards[BISHOPS] ^ this.bitboards[QUEENS], from)) {
+                targets |= Bitboard.bishopAttacks(from, this.occupied);
+            }
+            if (Bitboard.contains(this.bitboards[ROOKS] ^ this.bitboards[QUEENS], from)) {
+                targets |= Bitboard.rookAttacks(from, this.occupied);
+            }
+            if ((targets & mask & pinMask(king, pinned, from)) != 0) return true;
+            sliders &= sliders - 1L;
+        }
+
+        // With the castling rules of Chess960, castling can be the only
+        // legal move.
+        if (checkers != 0) return false;
+        long rooks = this.castlingRights & Bitboard.RANKS[this.turn ? 0 : 7];
+        while (rooks != 0) {
+            int rook = Bitboard.lsb(rooks);
+            if ((Bitboard.BETWEEN[king][rook] & this.occupied) == 0) {
+                int kingTo = Square.combine(rook < king ? Square.C1 : Square.G1, king);
+                long kingPath = Bitboard.BETWEEN[king][kingTo] | (1L << kingTo);
+                if ((kingPath & attacked) == 0) return true;
+            }
+            rooks &= rooks - 1L;
+        }
+        return false;
+    }
+
+    public long legalOrigins(Role role, int to) {
+        // The squares from which a piece of the given role, of the side to
+        // move, can legally move to the given square, like the origins of
+        // the legal moves to the square. Used to disambiguate moves in SAN
+        // without generating all the legal moves. Castling and pawns aren't
+        // covered. When only one piece could reach the square at all, its
+        // square is returned whether or not the move is legal.
+        long candidates = us() & this.bitboards[role.index];
+        switch (role) {
+            case KNIGHT:
+                candidates &= Bitboard.KNIGHT_ATTACKS[to];
+                break;
+            case BISHOP:
+                candidates &= Bitboard.bishopAttacks(to, this.occupied);
+                break;
+            case ROOK:
+                candidates &= Bitboard.rookAttacks(to, this.occupied);
+                break;
+            case QUEEN:
+                candidates &= Bitboard.queenAttacks(to, this.occupied);
+                break;
+            case KING:
+                candidates &= Bitboard.KING_ATTACKS[to];
+                break;
+            default:
+                throw new IllegalArgumentException("Pawn moves aren't disambiguated by origin.");
+        }
+        if (candidates == 0 || Bitboard.contains(us(), to)) return 0;
+
+        // A lone candidate can't make a move ambiguous, so it is returned
+        // without checking that its move is legal.
+        if (!Bitboard.moreThanOne(candidates)) return candidates;
+
+        int king = king(this.turn);
+        if (role == Role.KING) {
+            // Only reached with more than one king of a colour on the board,
+            // of which legalMoves() only moves the first.
+            long attacked = attackedBy(!this.turn, this.occupied ^ (1L << king));
+            return Bitboard.contains(attacked, to) ? 0 : candidates & (1L << king);
+        }
+
+        // Otherwise the move has to capture or block a single checker, and
+        // pinned pieces have to stay on the line through the king.
+        long checkers = attacksTo(king, !this.turn);
+        if (checkers != 0) {
+            if (Bitboard.moreThanOne(checkers)) return 0;
+            int checker = Bitboard.lsb(checkers);
+            if (!Bitboard.contains(Bitboard.BETWEEN[king][checker] | checkers, to)) return 0;
+        }
+        long pinned = sliderBlockers(king) & candidates;
+        long origins = candidates & ~pinned;
+        while (pinned != 0) {
+            int from = Bitboard.lsb(pinned);
+            if (Bitboard.contains(Bitboard.RAYS[king][from], to)) origins |= 1L << from;
+            pinned &= pinned - 1L;
+        }
+        return origins;
+    }
+
+    public long diff(Board other) {
+        // The squares where the two boards have different pieces.
+        long diff = 0;
+        for (int i = 0; i < this.bitboards.length; i++) {
+            diff |= this.bitboards[i] ^ other.bitboards[i];
+        }
+        return diff;
     }
 
     public boolean hasLegalEnPassant() {
@@ -293,19 +670,27 @@ public final class Board {
 
         if (this.epSquare == 0) return false; // shortcut
 
-        MoveList moves = new MoveList(2);
-        genEnPassant(moves);
-
+        // Checked directly rather than through a MoveList, since this runs
+        // every time the position is hashed.
         int king = king(this.turn);
-        long blockers = sliderBlockers(king);
-        return moves.anyMatch(m -> isSafe(king, m, blockers));
+        long pawns = us() & this.bitboards[PAWNS] & Bitboard.pawnAttacks(!this.turn, this.epSquare);
+        while (pawns != 0) {
+            if (isLegalEnPassant(king, Bitboard.lsb(pawns), this.epSquare)) return true;
+            pawns &= pawns - 1L;
+        }
+        return false;
+    }
+
+    private static long pinMask(int king, long pinned, int from) {
+        // A pinned piece can only move along the line through its king.
+        return Bitboard.contains(pinned, from) ? Bitboard.RAYS[king][from] : Bitboard.ALL;
     }
 
-    private void genNonKing(long mask, MoveList moves) {
-        genPawn(mask, moves);
+    private void genNonKing(long mask, int king, long pinned, MoveList moves) {
+        genPawn(mask, king, pinned, moves);
 
-        // Knights.
-        long knights = us() & this.knights;
+        // Knights. A pinned knight can never move.
+        long knights = us() & this.bitboards[KNIGHTS] & ~pinned;
         while (knights != 0) {
             int from = Bitboard.lsb(knights);
             long targets = Bitboard.KNIGHT_ATTACKS[from] & mask;
@@ -318,10 +703,10 @@ public final class Board {
         }
 
         // Bishops.
-        long bishops = us() & this.bishops;
+        long bishops = us() & this.bitboards[BISHOPS];
         while (bishops != 0) {
             int from = Bitboard.lsb(bishops);
-            long targets = Bitboard.bishopAttacks(from, this.occupied) & mask;
+            long targets = Bitboard.bishopAttacks(from, this.occupied) & mask & pinMask(king, pinned, from);
             while (targets != 0) {
                 int to = Bitboard.lsb(targets);
                 moves.pushNormal(this, Role.BISHOP, from, isOccupied(to), to);
@@ -331,10 +716,10 @@ public final class Board {
         }
 
         // Rooks.
-        long rooks = us() & this.rooks;
+        long rooks = us() & this.bitboards[ROOKS];
         while (rooks != 0) {
             int from = Bitboard.lsb(rooks);
-            long targets = Bitboard.rookAttacks(from, this.occupied) & mask;
+            long targets = Bitboard.rookAttacks(from, this.occupied) & mask & pinMask(king, pinned, from);
             while (targets != 0) {
                 int to = Bitboard.lsb(targets);
                 moves.pushNormal(this, Role.ROOK, from, isOccupied(to), to);
@@ -344,10 +729,10 @@ public final class Board {
         }
 
         // Queens.
-        long queens = us() & this.queens;
+        long queens = us() & this.bitboards[QUEENS];
         while (queens != 0) {
             int from = Bitboard.lsb(queens);
-            long targets = Bitboard.queenAttacks(from, this.occupied) & mask;
+            long targets = Bitboard.queenAttacks(from, this.occupied) & mask & pinMask(king, pinned, from);
             while (targets != 0) {
                 int to = Bitboard.lsb(targets);
                 moves.pushNormal(this, Role.QUEEN, from, isOccupied(to), to);
@@ -357,44 +742,22 @@ public final class Board {
         }
     }
 
-    private void genSafeKing(int king, long mask, MoveList moves) {
+    private void genKing(int king, long mask, MoveList moves) {
+        // The mask must already exclude attacked squares.
         long targets = Bitboard.KING_ATTACKS[king] & mask;
         while (targets != 0) {
             int to = Bitboard.lsb(targets);
-            if (attacksTo(to, !this.turn) == 0) {
-                moves.pushNormal(this, Role.KING, king, isOccupied(to), to);
-            }
+            moves.pushNormal(this, Role.KING, king, isOccupied(to), to);
             targets &= targets - 1L;
         }
     }
 
-    private void genEvasions(int king, long checkers, MoveList moves) {
-        // Checks by these sliding pieces can maybe be blocked.
-        long sliders = checkers & (this.bishops ^ this.rooks ^ this.queens);
-
-        // Collect attacked squares that the king can not escape to.
-        long attacked = 0;
-        while (sliders != 0) {
-            int slider = Bitboard.lsb(sliders);
-            attacked |= Bitboard.RAYS[king][slider] ^ (1L << slider);
-            sliders &= sliders - 1L;
-        }
-
-        genSafeKing(king, ~us() & ~attacked, moves);
-
-        if (checkers != 0 && !Bitboard.moreThanOne(checkers)) {
-            int checker = Bitboard.lsb(checkers);
-            long target = Bitboard.BETWEEN[king][checker] | checkers;
-            genNonKing(target, moves);
-        }
-    }
-
-    private void genPawn(long mask, MoveList moves) {
+    private void genPawn(long mask, int king, long pinned, MoveList moves) {
         // Pawn captures (except en passant).
-        long capturers = us() & this.pawns;
+        long capturers = us() & this.bitboards[PAWNS];
         while (capturers != 0) {
             int from = Bitboard.lsb(capturers);
-            long targets = Bitboard.pawnAttacks(this.turn, from) & them() & mask;
+            long targets = Bitboard.pawnAttacks(this.turn, from) & them() & mask & pinMask(king, pinned, from);
             while (targets != 0) {
                 int to = Bitboard.lsb(targets);
                 addPawnMoves(from, true, to, moves);
@@ -406,8 +769,8 @@ public final class Board {
         // Normal pawn moves.
         long singleMoves =
             ~this.occupied & (this.turn ?
-                ((this.white & this.pawns) << 8) :
-                ((this.black & this.pawns) >>> 8));
+                ((this.bitboards[WHITE] & this.bitboards[PAWNS]) << 8) :
+                ((this.bitboards[BLACK] & this.bitboards[PAWNS]) >>> 8));
 
         long doubleMoves =
             ~this.occupied &
@@ -420,14 +783,18 @@ public final class Board {
         while (singleMoves != 0) {
             int to = Bitboard.lsb(singleMoves);
             int from = to + (this.turn ? -8 : 8);
-            addPawnMoves(from, false, to, moves);
+            if (Bitboard.contains(pinMask(king, pinned, from), to)) {
+                addPawnMoves(from, false, to, moves);
+            }
             singleMoves &= singleMoves - 1L;
         }
 
         while (doubleMoves != 0) {
             int to = Bitboard.lsb(doubleMoves);
             int from = to + (this.turn ? -16: 16);
-            moves.pushNormal(this, Role.PAWN, from, false, to);
+            if (Bitboard.contains(pinMask(king, pinned, from), to)) {
+                moves.pushNormal(this, Role.PAWN, from, false, to);
+            }
             doubleMoves &= doubleMoves - 1L;
         }
     }
@@ -443,74 +810,57 @@ public final class Board {
         }
     }
 
-    private void genEnPassant(MoveList moves) {
-        long pawns = us() & this.pawns & Bitboard.pawnAttacks(!this.turn, this.epSquare);
+    private void genLegalEnPassant(int king, MoveList moves) {
+        long pawns = us() & this.bitboards[PAWNS] & Bitboard.pawnAttacks(!this.turn, this.epSquare);
         while (pawns != 0) {
             int pawn = Bitboard.lsb(pawns);
-            moves.pushEnPassant(this, pawn, this.epSquare);
+            if (isLegalEnPassant(king, pawn, this.epSquare)) {
+                moves.pushEnPassant(this, pawn, this.epSquare);
+            }
             pawns &= pawns - 1L;
         }
     }
 
-    private void genCastling(int king, MoveList moves) {
+    private boolean isLegalEnPassant(int king, int from, int to) {
+        // En passant removes two pieces from the capturing rank at once, so
+        // pins can't be handled like for other moves. Instead, check for
+        // attacks on the king with the occupancy after the capture; the
+        // captured pawn itself is masked out of the attackers.
+        long captured = 1L << Square.combine(to, from);
+        long occupied = (this.occupied ^ (1L << from) ^ captured) | (1L << to);
+        return (attacksTo(king, !this.turn, occupied) & ~captured) == 0;
+    }
+
+    private void genCastling(int king, long attacked, MoveList moves) {
+        if (Bitboard.contains(attacked, king)) return;
         long rooks = this.castlingRights & Bitboard.RANKS[this.turn ? 0 : 7];
         while (rooks != 0) {
             int rook = Bitboard.lsb(rooks);
             long path = Bitboard.BETWEEN[king][rook];
             if ((path & this.occupied) == 0) {
                 int kingTo = Square.combine(rook < king ? Square.C1 : Square.G1, king);
-                long kingPath = Bitboard.BETWEEN[king][kingTo] | (1L << kingTo) | (1L << king);
-                while (kingPath != 0) {
-                    int sq = Bitboard.lsb(kingPath);
-                    if (attacksTo(sq, !this.turn, this.occupied ^ (1L << king)) != 0) {
-                        break;
-                    }
-                    kingPath &= kingPath - 1L;
-                }
-                if (kingPath == 0) moves.pushCastle(this, king, rook);
+                long kingPath = Bitboard.BETWEEN[king][kingTo] | (1L << kingTo);
+                if ((kingPath & attacked) == 0) moves.pushCastle(this, king, rook);
             }
             rooks &= rooks - 1L;
         }
     }
 
-    // Used for filtering candidate moves that would leave/put the king
-    // in check.
-    private boolean isSafe(int king, Move move, long blockers) {
-        switch (move.type) {
-            case Move.NORMAL:
-                return
-                    !Bitboard.contains(us() & blockers, move.from) ||
-                    Square.aligned(move.from, move.to, king);
-
-            case Move.EN_PASSANT:
-                long occupied = this.occupied;
-                occupied ^= (1L << move.from);
-                occupied ^= (1L << Square.combine(move.to, move.from)); // captured pawn
-                occupied |= (1L << move.to);
-                return
-                    (Bitboard.rookAttacks(king, occupied) & them() & (this.rooks ^ this.queens)) == 0 &&
-                    (Bitboard.bishopAttacks(king, occupied) & them() & (this.bishops ^ this.queens)) == 0;
-
-            default:
-                return true;
-        }
-    }
-
     public void rotate180() {
-        pawns = Bitboard.rotate180(pawns);
-        knights = Bitboard.rotate180(knights);
-        bishops = Bitboard.rotate180(bishops);
-        rooks = Bitboard.rotate180(rooks);
-        queens = Bitboard.rotate180(queens);
-        kings = Bitboard.rotate180(kings);
-
-        white = Bitboard.rotate180(white);
-        black = Bitboard.rotate180(black);
+        for (int i = 0; i < bitboards.length; i++) {
+            bitboards[i] = Bitboard.rotate180(bitboards[i]);
+        }
         occupied = Bitboard.rotate180(occupied);
 
         castlingRights = Bitboard.rotate180(castlingRights);
 
-        incrementalHash = ZobristHash.hashPieces(this);
+        for (int sq = 0; sq < 32; sq++) {
+            byte piece = mailbox[sq];
+            mailbox[sq] = mailbox[63 - sq];
+            mailbox[63 - sq] = piece;
+        }
+
+        incrementalHash = ZobristHash.hashPieces(this) ^ ZobristHash.hashTurn(this);
     }
 
     static long D4 = 1L << Square.square(3,3);
@@ -520,6 +870,10 @@ public final class Board {
     static long centralSquares = D4 | D5 | E4 | E5;
 
     public Result resultSignal() {
+        long kings = bitboards[KINGS];
+        long white = bitboards[WHITE];
+        long black = bitboards[BLACK];
+
         // No result, unless both kings are in the centre.
         if((kings & white & centralSquares) == 0 || (kings & black & centralSquares) == 0)
             return null;
@@ -535,15 +889,14 @@ public final class Board {
     }
 
     public boolean equalSetup(Board b) {
-        return pawns == b.pawns
-                && knights == b.knights
-                && bishops == b.bishops
-                && rooks == b.rooks
-                && queens == b.queens
-                && kings == b.kings
-                && white == b.white
-                && black == b.black
-                && occupied == b.occupied;
+        // Most boards that differ already differ in occupancy, so check
+        // that first. The occupied bitboard is the union of the colour
+        // bitboards, so after that comparing the array is enough.
+        if (occupied != b.occupied) return false;
+        for (int i = 0; i < bitboards.length; i++) {
+            if (bitboards[i] != b.bitboards[i]) return false;
+        }
+        return true;
     }
 
     public String debugBoard() {
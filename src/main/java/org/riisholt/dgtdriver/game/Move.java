@@ -26,9 +26,9 @@ public final class Move implements Comparable<Move> {
         this.score = move.score;
     }
 
-    void set(Board board, int type, Role role, int from, boolean capture, int to, Role promotion) {
+    void set(int type, Role role, int from, boolean capture, int to, Role promotion) {
         // Overwrite the current move. This is like a constructor, but reuses
-        // an existing object.
+        // an existing object. The move is left unscored; see score().
 
         this.type = type;
         this.role = role;
@@ -36,16 +36,21 @@ public final class Move implements Comparable<Move> {
         this.capture = capture;
         this.to = to;
         this.promotion = promotion;
+        this.score = 0;
+    }
 
+    void score(Board board) {
         // Assign higher scores to moves that are more likely to be played.
         //
         // Scores must be unique for every move in the position, because
         // move ordering should never depend on implementation details of the
         // generator.
 
+        // The board must be the position the move was generated in.
+
         long defendingPawns =
             Bitboard.pawnAttacks(board.turn, to) &
-            board.pawns &
+            board.bitboards[Board.PAWNS] &
             board.them();
 
         int moveValue = pieceValue(board, role, to) - pieceValue(board, role, from);
@@ -7,7 +7,13 @@ public final class MoveList implements Iterable<Move> {
     // A move list that reuses a pool of moves, never allocating new objects.
     // This is somewhat dangerous: Care must be taken that the list is not
     // modified while external code still holds references.
+    //
+    // Scoring moves for sort() costs a pawn attack lookup and two table
+    // lookups per generated move. Lists created with scoring disabled skip
+    // this, and can only be sorted with sort(Board), which scores the moves
+    // on demand.
     private final Move buffer[];
+    private final boolean scoring;
     private int size = 0;
 
     public MoveList() {
@@ -15,6 +21,11 @@ public final class MoveList implements Iterable<Move> {
     }
 
     public MoveList(int capacity) {
+        this(capacity, true);
+    }
+
+    public MoveList(int capacity, boolean scoring) {
+        this.scoring = scoring;
         buffer = new Move[capacity];
 
         for (int i = 0; i < buffer.length; i++) {
@@ -39,23 +50,47 @@ public final class MoveList implements Iterable<Move> {
         return size == 0;
     }
 
+    public boolean isScoring() {
+        return scoring;
+    }
+
     public void pushNormal(Board board, Role role, int from, boolean capture, int to) {
-        buffer[size++].set(board, Move.NORMAL, role, from, capture, to, null);
+        push(board, Move.NORMAL, role, from, capture, to, null);
     }
 
     public void pushPromotion(Board board, int from, boolean capture, int to, Role promotion) {
-        buffer[size++].set(board, Move.NORMAL, Role.PAWN, from, capture, to, promotion);
+        push(board, Move.NORMAL, Role.PAWN, from, capture, to, promotion);
     }
 
     public void pushCastle(Board board, int king, int rook) {
-        buffer[size++].set(board, Move.CASTLING, Role.KING, king, false, rook, null);
+        push(board, Move.CASTLING, Role.KING, king, false, rook, null);
     }
 
     public void pushEnPassant(Board board, int capturer, int to) {
-        buffer[size++].set(board, Move.EN_PASSANT, Role.PAWN, capturer, true, to, null);
+        push(board, Move.EN_PASSANT, Role.PAWN, capturer, true, to, null);
+    }
+
+    private void push(Board board, int type, Role role, int from, boolean capture, int to, Role promotion) {
+        Move move = buffer[size++];
+        move.set(type, role, from, capture, to, promotion);
+        if (scoring) move.score(board);
     }
 
     public void sort() {
+        if (!scoring) {
+            throw new IllegalStateException("Moves were generated without scores, use sort(Board)");
+        }
+        Arrays.sort(buffer, 0, size, null);
+    }
+
+    public void sort(Board board) {
+        // Sort moves generated in the given position, scoring them first if
+        // that was skipped during generation.
+        if (!scoring) {
+            for (int i = 0; i < size; i++) {
+                buffer[i].score(board);
+            }
+        }
         Arrays.sort(buffer, 0, size, null);
     }
 
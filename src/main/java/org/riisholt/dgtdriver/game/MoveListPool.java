@@ -0,0 +1,49 @@
+package org.riisholt.dgtdriver.game;
+
+public final class MoveListPool {
+    // A thread-confined stack of move lists. Allocating a MoveList is
+    // expensive (the buffer and all 256 moves are created up front), so code
+    // that only needs a list temporarily borrows one from here instead.
+    // Lists are handed out in stack order, which matches the way recursive
+    // searches use them: the list at depth n is in use exactly while ply n is
+    // being searched.
+    //
+    // Pooled lists are created with scoring disabled, since none of the
+    // internal callers sort their moves.
+    //
+    // Every acquire() must be paired with a release() of the same list on the
+    // same thread, in reverse order of acquisition.
+
+    private static final ThreadLocal<MoveListPool> LOCAL = ThreadLocal.withInitial(MoveListPool::new);
+
+    private MoveList lists[] = new MoveList[8];
+    private int depth = 0;
+
+    private MoveListPool() {}
+
+    public static MoveListPool local() {
+        return LOCAL.get();
+    }
+
+    public MoveList acquire() {
+        if (depth == lists.length) {
+            MoveList grown[] = new MoveList[lists.length * 2];
+            System.arraycopy(lists, 0, grown, 0, lists.length);
+            lists = grown;
+        }
+
+        MoveList moves = lists[depth];
+        if (moves == null) {
+            moves = new MoveList(256, false);
+            lists[depth] = moves;
+        }
+        depth++;
+        moves.clear();
+        return moves;
+    }
+
+    public void release(MoveList moves) {
+        assert depth > 0 && lists[depth - 1] == moves;
+        depth--;
+    }
+}
@@ -0,0 +1,186 @@
+package org.riisholt.dgtdriver.game;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public final class PackedPosition {
+    // A position packed into 24 bytes: the occupancy bitboard, followed by
+    // a nibble for each occupied square in square order. Besides the 12
+    // kinds of piece, the nibbles encode the rest of the position, like the
+    // binary FEN of the lichess database:
+    //
+    // - 12: a pawn that has just moved two squares and can be captured en
+    //   passant (its colour follows from its rank),
+    // - 13 and 14: a white or black rook that can still castle,
+    // - 15: the black king, with black to move.
+    //
+    // Every position has exactly one encoding, so packed positions can be
+    // compared and hashed directly, as longs or as bytes. Positions with
+    // more than 32 pieces, or black to move without a black king, can't be
+    // packed.
+
+    public static final int BYTES = 24;
+    public static final int LONGS = 3;
+
+    private static final int EN_PASSANT_PAWN = 12;
+    private static final int WHITE_CASTLING_ROOK = 13;
+    private static final int BLACK_CASTLING_ROOK = 14;
+    private static final int BLACK_KING_TO_MOVE = 15;
+    private static final Role[] ROLES = Role.values();
+
+    private final long occupied;
+    private final long low;
+    private final long high;
+
+    private PackedPosition(long occupied, long low, long high) {
+        this.occupied = occupied;
+        this.low = low;
+        this.high = high;
+    }
+
+    public static PackedPosition of(Board board) {
+        checkPackable(board);
+        return new PackedPosition(board.occupied, nibbles(board, 0), nibbles(board, 16));
+    }
+
+    public static void encode(Board board, long[] out, int offset) {
+        // Writes the packed position to three consecutive longs.
+        checkPackable(board);
+        out[offset] = board.occupied;
+        out[offset + 1] = nibbles(board, 0);
+        out[offset + 2] = nibbles(board, 16);
+    }
+
+    private static void checkPackable(Board board) {
+        if (Long.bitCount(board.occupied) > 32) {
+            throw new IllegalArgumentException("Can't pack a position with more than 32 pieces.");
+        }
+        if (!board.turn && (board.bitboards[Board.KINGS] & board.bitboards[Board.BLACK]) == 0) {
+            throw new IllegalArgumentException("Can't pack a position with black to move and no black king.");
+        }
+    }
+
+    private static long nibbles(Board board, int first) {
+        // The nibbles of the 16 pieces from the given index on.
+        int epPawn = board.epSquare == 0 ? -1 : board.epSquare + (board.turn ? -8 : 8);
+        long nibbles = 0;
+        long occupied = board.occupied;
+        for (int i = 0; occupied != 0 && i < first + 16; i++) {
+            int sq = Bitboard.lsb(occupied);
+            occupied &= occupied - 1L;
+            if (i < first) continue;
+
+            Role role = board.roleAt(sq);
+            boolean white = board.whiteAt(sq);
+            int code;
+            if (sq == epPawn && role == Role.PAWN) {
+                code = EN_PASSANT_PAWN;
+            } else if (role == Role.ROOK && Bitboard.contains(board.castlingRights, sq)) {
+                code = white ? WHITE_CASTLING_ROOK : BLACK_CASTLING_ROOK;
+            } else if (role == Role.KING && !white && !board.turn) {
+                code = BLACK_KING_TO_MOVE;
+            } else {
+                code = role.index + (white ? 0 : 6);
+            }
+            nibbles |= (long) code << ((i - first) * 4);
+        }
+        return nibbles;
+    }
+
+    public static void decode(long[] in, int offset, Board board) {
+        // Overwrites the board with the packed position read from three
+        // consecutive longs.
+        decode(in[offset], in[offset + 1], in[offset + 2], board);
+    }
+
+    private static void decode(long occupied, long low, long high, Board board) {
+        Arrays.fill(board.bitboards, 0);
+        Arrays.fill(board.mailbox, (byte) 0);
+        board.occupied = 0;
+        board.incrementalHash = 0;
+        board.turn = true;
+        board.epSquare = 0;
+        board.castlingRights = 0;
+
+        int i = 0;
+        while (occupied != 0) {
+            int sq = Bitboard.lsb(occupied);
+            int code = (int) ((i < 16 ? low : high) >>> ((i & 15) * 4)) & 15;
+            switch (code) {
+                case EN_PASSANT_PAWN: {
+                    // A white pawn on the fourth rank was pushed by white,
+                    // so it's black to move.
+                    boolean white = Square.rank(sq) == 3;
+                    board.put(sq, white, Role.PAWN);
+                    board.epSquare = sq + (white ? -8 : 8);
+                    break;
+                }
+                case WHITE_CASTLING_ROOK:
+                case BLACK_CASTLING_ROOK:
+                    board.put(sq, code == WHITE_CASTLING_ROOK, Role.ROOK);
+                    board.castlingRights |= 1L << sq;
+                    break;
+                case BLACK_KING_TO_MOVE:
+                    board.put(sq, false, Role.KING);
+                    board.turn = false;
+                    break;
+                default:
+                    board.put(sq, code < 6, ROLES[code % 6]);
+                    break;
+            }
+            i++;
+            occupied &= occupied - 1L;
+        }
+
+        if (board.turn) board.incrementalHash ^= ZobristHash.POLYGLOT[780];
+    }
+
+    public Board board() {
+        Board board = Board.emptyBoard();
+        decode(board);
+        return board;
+    }
+
+    public void decode(Board board) {
+        decode(this.occupied, this.low, this.high, board);
+    }
+
+    public void write(ByteBuffer buffer) {
+        buffer.putLong(this.occupied);
+        buffer.putLong(this.low);
+        buffer.putLong(this.high);
+    }
+
+    public static PackedPosition read(ByteBuffer buffer) {
+        long occupied = buffer.getLong();
+        long low = buffer.getLong();
+        long high = buffer.getLong();
+        return new PackedPosition(occupied, low, high);
+    }
+
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(BYTES);
+        write(buffer);
+        return buffer.array();
+    }
+
+    public static PackedPosition fromBytes(byte[] bytes) {
+        if (bytes.length != BYTES) {
+            throw new IllegalArgumentException("A packed position is " + BYTES + " bytes, not " + bytes.length + ".");
+        }
+        return read(ByteBuffer.wrap(bytes));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PackedPosition)) return false;
+        PackedPosition other = (PackedPosition) o;
+        return this.occupied == other.occupied && this.low == other.low && this.high == other.high;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = (this.occupied * 31 + this.low) * 31 + this.high;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,168 @@
+package org.riisholt.dgtdriver.game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+public final class Perft {
+    // Counts the leaf nodes of the legal move tree to a fixed depth. Since
+    // the node counts for well known positions are published, this checks
+    // the move generator for correctness, and timing it gives a throughput
+    // figure in nodes per second.
+
+    private Perft() {}
+
+    public static long perft(Board board, int depth) {
+        if (depth < 1) return 1;
+        MoveListPool pool = MoveListPool.local();
+        return perft(board, depth, pool);
+    }
+
+    private static long perft(Board board, int depth, MoveListPool pool) {
+        MoveList moves = pool.acquire();
+        board.legalMoves(moves);
+
+        long nodes = 0;
+        if (depth == 1) {
+            // Bulk counting: the moves at the last ply are the leaves.
+            nodes = moves.size();
+        } else {
+            for (int i = 0; i < moves.size(); i++) {
+                Board child = new Board(board);
+                child.play(moves.get(i));
+                nodes += perft(child, depth - 1, pool);
+            }
+        }
+
+        pool.release(moves);
+        return nodes;
+    }
+
+    public static Map<String, Long> divide(Board board, int depth) {
+        // Node counts below each root move, keyed by the move in UCI
+        // notation. Comparing this against another implementation narrows
+        // a wrong total down to the offending move.
+        LinkedHashMap<String, Long> counts = new LinkedHashMap<>();
+        if (depth < 1) return counts;
+
+        MoveListPool pool = MoveListPool.local();
+        MoveList moves = pool.acquire();
+        board.legalMoves(moves);
+        for (int i = 0; i < moves.size(); i++) {
+            Move move = moves.get(i);
+            Board child = new Board(board);
+            child.play(move);
+            counts.put(move.uci(), depth == 1 ? 1 : perft(child, depth - 1, pool));
+        }
+        pool.release(moves);
+        return counts;
+    }
+
+    public static long parallelPerft(Board board, int depth, ForkJoinPool forkJoinPool) {
+        if (depth < 1) return 1;
+        long nodes = 0;
+        for (long count : parallelDivide(board, depth, forkJoinPool).values()) {
+            nodes += count;
+        }
+        return nodes;
+    }
+
+    public static Map<String, Long> parallelDivide(Board board, int depth, ForkJoinPool forkJoinPool) {
+        // Like divide(), but the subtree of each root move is counted as a
+        // separate fork-join task.
+        LinkedHashMap<String, Long> counts = new LinkedHashMap<>();
+        if (depth < 1) return counts;
+
+        List<String> names = new ArrayList<>();
+        List<SubtreeTask> tasks = new ArrayList<>();
+        MoveListPool pool = MoveListPool.local();
+        MoveList moves = pool.acquire();
+        board.legalMoves(moves);
+        for (int i = 0; i < moves.size(); i++) {
+            Move move = moves.get(i);
+            Board child = new Board(board);
+            child.play(move);
+            names.add(move.uci());
+            tasks.add(new SubtreeTask(child, depth - 1));
+        }
+        pool.release(moves);
+
+        forkJoinPool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+
+        for (int i = 0; i < tasks.size(); i++) {
+            counts.put(names.get(i), tasks.get(i).join());
+        }
+        return counts;
+    }
+
+    private static final class SubtreeTask extends RecursiveTask<Long> {
+        private final Board board;
+        private final int depth;
+
+        SubtreeTask(Board board, int depth) {
+            this.board = board;
+            this.depth = depth;
+        }
+
+        protected Long compute() {
+            return perft(board, depth);
+        }
+    }
+
+    public static final class Position {
+        // A test position with its known node counts; nodes[0] is the count
+        // at depth 1.
+        public final String name;
+        public final String fen;
+        private final long nodes[];
+
+        Position(String name, String fen, long... nodes) {
+            this.name = name;
+            this.fen = fen;
+            this.nodes = nodes;
+        }
+
+        public Board board() {
+            return Board.fromFen(fen);
+        }
+
+        public int maxDepth() {
+            return nodes.length;
+        }
+
+        public long nodes(int depth) {
+            return nodes[depth - 1];
+        }
+    }
+
+    // Node counts from https://www.chessprogramming.org/Perft_Results
+    private static final List<Position> STANDARD_POSITIONS = Collections.unmodifiableList(Arrays.asList(
+        new Position("initial",
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            20, 400, 8902, 197281, 4865609, 119060324L),
+        new Position("kiwipete",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            48, 2039, 97862, 4085603, 193690690L),
+        new Position("position3",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            14, 191, 2812, 43238, 674624, 11030083, 178633661L),
+        new Position("position4",
+            "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+            6, 264, 9467, 422333, 15833292),
+        new Position("position5",
+            "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+            44, 1486, 62379, 2103487, 89941194),
+        new Position("position6",
+            "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+            46, 2079, 89890, 3894594, 164075551L)));
+
+    public static List<Position> standardPositions() {
+        return STANDARD_POSITIONS;
+    }
+}
@@ -10,6 +10,24 @@
  *     <li>Board.resultSignal() was added.</li>
  *     <li>Some classes and methods were made public.</li>
  *     <li>MoveList was made to implement Iterable.</li>
+ *     <li>MoveListPool was added, and Board.hasLegalEnPassant() checks en
+ *         passant captures without allocating a MoveList.</li>
+ *     <li>Move scores are optional: MoveList can generate unscored moves,
+ *         which are scored lazily by MoveList.sort(Board).</li>
+ *     <li>Board keeps a mailbox of the piece on each square alongside the
+ *         bitboards.</li>
+ *     <li>The piece and colour bitboards of Board are stored in a single
+ *         array indexed by Role.index.</li>
+ *     <li>Board.legalMoves() generates only legal moves using pin masks and
+ *         an attack map.</li>
+ *     <li>Board.fromFen() was added.</li>
+ *     <li>Perft was added, with the standard test positions and a parallel
+ *         mode splitting the root moves over a ForkJoinPool.</li>
+ *     <li>Board.copyFrom() and Board.pieceHash() were added, and copying a
+ *         board copies its hash rather than recomputing it.</li>
+ *     <li>Board.isLegal() and Board.diff() were added.</li>
+ *     <li>Board.hasAnyLegalMove() and Board.legalOrigins() were added.</li>
+ *     <li>PackedPosition was added, a 24 byte encoding of a position.</li>
  * </ul>
  */
 package org.riisholt.dgtdriver.game;
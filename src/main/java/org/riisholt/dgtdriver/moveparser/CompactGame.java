@@ -0,0 +1,199 @@
+package org.riisholt.dgtdriver.moveparser;
+
+import org.riisholt.dgtdriver.BWTime;
+import org.riisholt.dgtdriver.game.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+
+/**
+ * <p>A compact representation of a {@link Game}, for keeping many games in
+ * memory. Rather than a list of {@link PlayedMove} objects, each with its own
+ * board, the game is stored as a packed start position, a result, and two
+ * parallel arrays with an entry per ply: the move, packed into a short, and
+ * the clock state, packed into a long. That comes to 10 bytes per ply, or 2
+ * if the game has no clock information.</p>
+ *
+ * <p>Since the boards aren't stored, they're regenerated by replaying the
+ * moves when the game is converted back to a Game with {@link #toGame()},
+ * or a position is asked for with {@link #board(int)}.</p>
+ */
+public final class CompactGame {
+    private static final long CLOCK_PRESENT = 1L << 48;
+
+    private final PackedPosition start;
+    private final short[] moves;
+    // Null if none of the moves have clock information.
+    private final long[] clocks;
+    private final Result result;
+
+    /**
+     * Makes a compact copy of a game played from the standard initial
+     * position, like the games emitted by {@link MoveParser}.
+     *
+     * @param game The game to copy
+     * @throws IllegalArgumentException if the moves of the game aren't legal
+     *                                  from the initial position
+     */
+    public CompactGame(Game game) {
+        this(new Board(), game);
+    }
+
+    /**
+     * Makes a compact copy of a game played from the given position.
+     *
+     * @param start The position before the first move of the game
+     * @param game The game to copy
+     * @throws IllegalArgumentException if the moves of the game aren't legal
+     *                                  from the start position, or the start
+     *                                  position can't be packed
+     * @see PackedPosition
+     */
+    public CompactGame(Board start, Game game) {
+        this.start = PackedPosition.of(start);
+        this.result = game.result;
+        int plies = game.moves.size();
+        moves = new short[plies];
+        long[] clocks = null;
+
+        // Replay the game to make sure the moves can be found again.
+        Board board = this.start.board();
+        MoveList legal = new MoveList();
+        for(int ply = 0; ply < plies; ply++) {
+            PlayedMove m = game.moves.get(ply);
+            moves[ply] = pack(m.move);
+            Move move = find(board, moves[ply], legal);
+            if(move == null)
+                throw new IllegalArgumentException("Illegal move " + m.move.uci() + " at ply " + ply + ".");
+            board.play(move);
+
+            if(m.clockInfo != null) {
+                if(clocks == null)
+                    clocks = new long[plies];
+                clocks[ply] = packClock(m.clockInfo);
+            }
+        }
+        this.clocks = clocks;
+    }
+
+    /**
+     * The number of plies in the game.
+     *
+     * @return The number of moves played
+     */
+    public int plies() { return moves.length; }
+
+    /**
+     * The result of the game, if any.
+     *
+     * @return The result, or null if the game ended without one
+     */
+    public Result result() { return result; }
+
+    /**
+     * The position before the first move of the game.
+     *
+     * @return A copy of the start position
+     */
+    public Board startPosition() { return start.board(); }
+
+    /**
+     * The clock state after a move. Times are stored with a resolution of
+     * whole seconds, as sent by the clock.
+     *
+     * @param ply The index of the move, counting from 0
+     * @return The clock state, or null if the move has none
+     */
+    public BWTime clockInfo(int ply) {
+        if(ply < 0 || ply >= moves.length)
+            throw new IndexOutOfBoundsException("No ply " + ply + " in a game of " + moves.length + " plies.");
+        return clocks == null? null: unpackClock(clocks[ply]);
+    }
+
+    /**
+     * The position after a number of moves, found by replaying the moves
+     * from the start position.
+     *
+     * @param plies The number of moves to play, from 0 to {@link #plies()}
+     * @return The position after the moves
+     */
+    public Board board(int plies) {
+        if(plies < 0 || plies > moves.length)
+            throw new IndexOutOfBoundsException("No position after " + plies + " plies in a game of " + moves.length + " plies.");
+        Board board = start.board();
+        MoveList legal = new MoveList();
+        for(int ply = 0; ply < plies; ply++)
+            board.play(find(board, moves[ply], legal));
+        return board;
+    }
+
+    /**
+     * Converts the game back to a full Game. The boards are regenerated by
+     * replaying the moves, and the SAN of each move is computed when it's
+     * first asked for, as for the games emitted by {@link MoveParser}.
+     *
+     * @return The game
+     */
+    public Game toGame() {
+        ArrayList<PlayedMove> played = new ArrayList<>(moves.length);
+        Board board = start.board();
+        MoveList legal = new MoveList();
+        for(int ply = 0; ply < moves.length; ply++) {
+            Move move = find(board, moves[ply], legal);
+            Board after = new Board(board);
+            after.play(move);
+            played.add(new PlayedMove(board, clockInfo(ply), after, move));
+            board = after;
+        }
+        return new Game(played, result);
+    }
+
+    /* Moves are packed as the origin square in the low six bits, then the
+     * destination square, and the promotion role's index plus one, or 0 for
+     * no promotion, in the top bits. Castling moves are stored like Move
+     * stores them, as the king moving to the rook's square. The rest of the
+     * move follows from the position. */
+    private static short pack(Move move) {
+        int promotion = move.promotion == null? 0: move.promotion.index + 1;
+        return (short) (move.from | move.to << 6 | promotion << 12);
+    }
+
+    private static Move find(Board board, short packed, MoveList legal) {
+        int from = packed & 0x3f;
+        int to = packed >>> 6 & 0x3f;
+        int promotion = packed >>> 12 & 0x7;
+        board.legalMoves(legal);
+        for(Move m: legal) {
+            if(m.from == from && m.to == to && (m.promotion == null? 0: m.promotion.index + 1) == promotion)
+                return new Move(m);
+        }
+        return null;
+    }
+
+    /* Clock states are packed as the left and right times in seconds, 16
+     * bits each, then the left and right flags, 4 bits each, and the status
+     * flags. Bit 48 marks that the move has clock information at all. */
+    private static long packClock(BWTime time) {
+        return CLOCK_PRESENT |
+                seconds(time.left) |
+                seconds(time.right) << 16 |
+                (long) (time.leftFlags & 0xf) << 32 |
+                (long) (time.rightFlags & 0xf) << 36 |
+                (long) (time.clockStatusFlags & 0xff) << 40;
+    }
+
+    private static long seconds(Duration d) {
+        return Math.min(Math.max(d.getSeconds(), 0), 0xffff);
+    }
+
+    private static BWTime unpackClock(long packed) {
+        if((packed & CLOCK_PRESENT) == 0)
+            return null;
+        return new BWTime(
+                Duration.ofSeconds(packed & 0xffff),
+                (byte) (packed >>> 32 & 0xf),
+                Duration.ofSeconds(packed >>> 16 & 0xffff),
+                (byte) (packed >>> 36 & 0xf),
+                (byte) (packed >>> 40 & 0xff));
+    }
+}
@@ -1,7 +1,10 @@
 package org.riisholt.dgtdriver.moveparser;
 
 import org.riisholt.dgtdriver.game.Result;
+import org.riisholt.dgtdriver.pgn.PgnWriter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collections;
 import java.util.List;
 
@@ -51,23 +54,14 @@ public class Game {
      * @return The UCI moves of the game
      */
     public String uci() {
-        int ply = 0;
         StringBuilder builder = new StringBuilder();
-        for(PlayedMove m: moves) {
-            if(ply % 2 == 0) {
-                builder.append(1 + ply/2)
-                        .append(". ")
-                        .append(m.move.uci());
-            }
-            else {
-                builder.append(' ')
-                        .append(m.move.uci())
-                        .append('\n');
-            }
-            ply++;
+        try {
+            new PgnWriter(builder).writeUci(this);
+        }
+        catch(IOException e) {
+            // Appending to a StringBuilder doesn't throw.
+            throw new UncheckedIOException(e);
         }
-        appendResult(builder);
-        builder.append('\n');
         return builder.toString();
     }
 
@@ -77,35 +71,16 @@ public class Game {
      * @param includeClock Include clock times for each move, if available.
      * @return The PGN representation of the game.
      * @see <a href="https://www.chessclub.com/help/PGN-spec">The PGN specification</a>
+     * @see PgnWriter
      */
     public String pgn(boolean includeClock) {
-        int ply = 0;
         StringBuilder sb = new StringBuilder();
-        for(PlayedMove m: moves) {
-            if(ply % 2 == 0) {
-                sb.append(1 + ply/2)
-                        .append(". ")
-                        .append(m.san);
-                if(includeClock && m.clockInfo != null)
-                    sb.append(' ')
-                      .append(String.format("{[%%clk %s]}", m.clockInfo.leftTimeString()));
-            }
-            else {
-                sb.append(' ')
-                        .append(m.san);
-                if(includeClock && m.clockInfo != null)
-                    sb.append(' ')
-                      .append(String.format("{[%%clk %s]}", m.clockInfo.rightTimeString()));
-                sb.append('\n');
-            }
-            ply++;
+        try {
+            new PgnWriter(sb).writeMoves(this, includeClock);
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
         }
-        appendResult(sb);
-        sb.append('\n');
         return sb.toString();
     }
-
-    private void appendResult(StringBuilder sb) {
-        sb.append(' ').append(result != null? result.resultString() : "*");
-    }
 }
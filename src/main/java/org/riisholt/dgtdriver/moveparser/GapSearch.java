@@ -0,0 +1,137 @@
+package org.riisholt.dgtdriver.moveparser;
+
+import org.riisholt.dgtdriver.game.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the shortest sequence of legal moves leading from a known position
+ * to a board state, used by {@link MoveParser} to recover when the
+ * intermediate states of several moves have been missed. The search is an
+ * iterative deepening depth-first search, bounded both in depth and in the
+ * number of positions expanded.
+ *
+ * <p>Three things keep the search cheap. The last ply isn't expanded at all;
+ * instead, the move is inferred from the squares that differ, as for a
+ * single move. Since a move changes at most four squares, a position with
+ * more differing squares than four times the remaining plies is cut off,
+ * and the same goes for one which would need more captures than there are
+ * plies left. And a transposition cache records the positions already
+ * searched to each remaining depth, so move orders reaching the same
+ * position are only searched once.</p>
+ */
+class GapSearch {
+    // The remaining depth is kept in the low three bits of the cache keys.
+    static final int MAX_PLIES = 7;
+
+    private final int maxPlies;
+    private final int maxNodes;
+    // The keys of the positions searched, in a primitive table so that
+    // nodes aren't boxed.
+    private final OccupancyIndex searched = new OccupancyIndex();
+    private final Board[] boards;
+    private final Move[] line;
+    private final Move leaf = new Move();
+    private final Board leafBoard = Board.emptyBoard();
+    private Board target;
+    private int nodes;
+
+    /**
+     * Class constructor.
+     *
+     * @param maxPlies The longest sequence of moves to look for
+     * @param maxNodes The number of positions to expand before giving up
+     */
+    GapSearch(int maxPlies, int maxNodes) {
+        this.maxPlies = maxPlies;
+        this.maxNodes = maxNodes;
+        boards = new Board[maxPlies];
+        for(int i = 0; i < maxPlies; i++)
+            boards[i] = Board.emptyBoard();
+        line = new Move[maxPlies];
+    }
+
+    /**
+     * Searches for the shortest sequence of legal moves leading from one
+     * position to the given piece setup.
+     *
+     * @param from The position to start from
+     * @param target The piece setup to reach
+     * @return The moves, or null if there is no such sequence within the
+     *         limits
+     */
+    List<Move> search(Board from, Board target) {
+        this.target = target;
+        nodes = 0;
+        searched.clear();
+        try {
+            for(int depth = 1; depth <= maxPlies && nodes <= maxNodes; depth++) {
+                boards[0].copyFrom(from);
+                if(search(0, depth)) {
+                    List<Move> moves = new ArrayList<>(depth);
+                    for(int i = 0; i < depth; i++)
+                        moves.add(line[i]);
+                    return moves;
+                }
+            }
+            return null;
+        }
+        finally {
+            this.target = null;
+            searched.clear();
+        }
+    }
+
+    /**
+     * The number of positions expanded by the last search.
+     *
+     * @return The node count
+     */
+    int nodes() { return nodes; }
+
+    private boolean search(int ply, int remaining) {
+        Board board = boards[ply];
+        if(remaining == 1) {
+            if(!MoveParser.inferMove(board, target, leaf, leafBoard))
+                return false;
+            line[ply] = new Move(leaf);
+            return true;
+        }
+
+        if(Long.bitCount(board.diff(target)) > 4 * remaining)
+            return false;
+        int captures = Long.bitCount(board.occupied()) - Long.bitCount(target.occupied());
+        if(captures < 0 || captures > remaining)
+            return false;
+        // The occupancy makes collisions of the 24 bit Zobrist hash unlikely
+        // to cut off a branch that should have been searched. The remaining
+        // depth, at most MAX_PLIES, fits in the three bits below.
+        long key = (board.occupied() * 0x9e3779b97f4a7c15L ^ board.zobristHash()) * 8 + remaining;
+        if(searched.contains(key))
+            return false;
+        searched.add(key);
+
+        MoveListPool pool = MoveListPool.local();
+        MoveList moves = pool.acquire();
+        try {
+            board.legalMoves(moves);
+            Board child = boards[ply + 1];
+            for(int i = 0; i < moves.size(); i++) {
+                if(++nodes > maxNodes)
+                    return false;
+                Move move = moves.get(i);
+                child.copyFrom(board);
+                child.play(move);
+                if(search(ply + 1, remaining - 1)) {
+                    line[ply] = new Move(move);
+                    return true;
+                }
+            }
+            return false;
+        }
+        finally {
+            pool.release(moves);
+        }
+    }
+}
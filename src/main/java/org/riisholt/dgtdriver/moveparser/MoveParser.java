@@ -42,6 +42,47 @@ import java.util.*;
 public class MoveParser {
     public interface GameCallback { void gameComplete(Game game); }
 
+    /**
+     * A listener following a game move by move, as the parser confirms
+     * them. The moves passed to {@link #moveConfirmed(PlayedMove, int)},
+     * minus the ones retracted by {@link #movesRetracted(int)}, are the
+     * moves of {@link #currentGame(Result)}. When the game is complete, it
+     * is passed to the {@link GameCallback} as usual, and the next confirmed
+     * move is the first move of a new game.
+     */
+    public interface MoveListener {
+        /**
+         * A move has been confirmed. Since the clock state is sent after the
+         * move, the move's clockInfo member is typically null.
+         *
+         * @param move The move played
+         * @param ply The index of the move in the game, counting from 0
+         */
+        void moveConfirmed(PlayedMove move, int ply);
+
+        /**
+         * Moves have been taken back, leaving the given number of moves in
+         * the game. A move made on the way to its destination square (a
+         * piece set down on an intermediate square, say) is also retracted
+         * this way when the piece is moved on.
+         *
+         * @param ply The index of the first retracted move, which is also the
+         *            number of moves left
+         */
+        default void movesRetracted(int ply) {}
+
+        /**
+         * The clock state after the last move has changed. The clock sends
+         * its state continuously, so this is called about once a second
+         * while the clock runs, with the times corrected for board
+         * orientation like the clockInfo member of {@link PlayedMove}.
+         *
+         * @param clockInfo The new clock state
+         * @param ply The index of the move the clock state belongs to
+         */
+        default void clockUpdated(BWTime clockInfo, int ply) {}
+    }
+
     private static final Board initialPosition = new Board();
     private static final Board rotatedInitialPosition;
     static {
@@ -50,12 +91,51 @@ public class MoveParser {
     }
 
     private final GameCallback gameCallback;
+    private MoveListener moveListener;
 
+    /* The board as seen by the parser. Field updates are applied to this
+     * board in place, and it's looked up in the position map through the
+     * reusable probe, so following the pieces on the board doesn't allocate.
+     * Since it changes under our feet, it must never be stored in the map
+     * itself. */
     private Board boardState;
+    private final ReachablePosition probe = new ReachablePosition(null, null, null);
+    // Scratch space for checking inferred moves without allocating.
+    private final Board scratch = Board.emptyBoard();
+    private final Move candidate = new Move();
+    /* The positions reached so far, which the game can be taken back to.
+     * They're indexed in two levels: first by occupancy alone, which rejects
+     * most board states (a piece in the hand, say) with a single probe, and
+     * then by the full piece setup. The two are kept in sync by
+     * addPosition() and removePosition(). */
+    private OccupancyIndex occupancies;
     private HashMap<ReachablePosition, ReachablePosition> positions;
     private boolean seenInitialPosition;
     private boolean rotate;
     private ReachablePosition lastReachable;
+    /* The positions after each move of the game so far, kept in step with
+     * lastReachable by advance(), and the moves of the last snapshot
+     * returned by currentGame(), which is reused until the game or the
+     * clock changes. */
+    private ArrayList<ReachablePosition> line;
+    private List<PlayedMove> snapshot;
+    private int positionWindow;
+    private ArrayDeque<ReachablePosition> window;
+    /* Gap recovery, for when the intermediate states of several moves have
+     * been missed. Most unrecognized board states are moves in progress, so
+     * the search waits for the board to settle: it's only started on a
+     * board dump (as sent when the board reconnects), on a clock update when
+     * the board hasn't changed since the previous one, or after GAP_UPDATES
+     * field updates in a row that weren't recognized. The
+     * setup of the last board state the search failed on is remembered, so
+     * a board left in a state that can't be explained isn't searched again
+     * on every update. */
+    private static final int GAP_UPDATES = 8;
+    private GapSearch gapSearch;
+    private int unrecognized;
+    private boolean changedSinceClock;
+    private long failedOccupancy;
+    private int failedHash;
 
     /**
      * Class constructor.
@@ -66,14 +146,100 @@ public class MoveParser {
     public MoveParser(GameCallback gameCallback) {
         this.gameCallback = gameCallback;
         boardState = null;
+        positionWindow = 0;
+        setGapRecovery(3, 20000);
         resetState();
     }
 
+    /**
+     * <p>Bounds the number of positions remembered for takebacks. By default,
+     * the parser remembers every position reached during a game, so that
+     * the game can be taken back to any earlier position, which means
+     * memory use grows with the length of the game. With a window of
+     * <code>n</code> positions, only the <code>n</code> most recently
+     * reached positions are remembered, and moves can be taken back up to
+     * <code>n - 1</code> moves before the current position.</p>
+     *
+     * <p>Note that the window counts every recognized position, including
+     * ones passed through while a move is being made (a bishop set down on
+     * each square along its path, for example), so a window of 4 to 8
+     * positions is a reasonable choice.</p>
+     *
+     * <p>Changing the window while a game is in progress takes effect from
+     * the start of the next game.</p>
+     *
+     * @param positions The number of recent positions to keep, or 0 to keep
+     *                  all positions
+     * @throws IllegalArgumentException if positions is negative
+     */
+    public void setPositionWindow(int positions) {
+        if(positions < 0)
+            throw new IllegalArgumentException("Position window can't be negative.");
+        positionWindow = positions;
+    }
+
+    /**
+     * <p>Sets the limits of gap recovery. When moves are made quickly, or the
+     * connection to the board drops data, the parser can miss the board
+     * states between moves and see a board several moves ahead of the last
+     * recognized position. When that happens, the parser searches for the
+     * shortest sequence of legal moves from the last recognized position
+     * that gives the pieces on the board, and adds the moves to the game.
+     * Since most unrecognized board states are moves in progress, the search
+     * is only made once the board has settled: on a board dump, on a clock
+     * update with no change to the board since the previous one, or after
+     * several field updates in a row that don't give a known position.
+     * The search is bounded by the number of moves in the sequence, at most
+     * 7, and by the number of positions looked at; with the default limits
+     * of 3 moves and 20000 positions, a search takes a few milliseconds at
+     * most.</p>
+     *
+     * @param maxPlies The longest sequence of moves to recover, at most 7,
+     *                 or 0 to disable gap recovery
+     * @param maxNodes The number of positions to search before giving up
+     * @throws IllegalArgumentException if either limit is negative, or
+     *                                  maxPlies is more than 7
+     */
+    public void setGapRecovery(int maxPlies, int maxNodes) {
+        if(maxPlies < 0 || maxNodes < 0)
+            throw new IllegalArgumentException("Gap recovery limits can't be negative.");
+        if(maxPlies > GapSearch.MAX_PLIES)
+            throw new IllegalArgumentException(
+                    "Gap recovery can't search more than " + GapSearch.MAX_PLIES + " plies.");
+        // A single move is found without searching.
+        gapSearch = maxPlies > 1? new GapSearch(maxPlies, maxNodes): null;
+        unrecognized = 0;
+        failedOccupancy = 0;
+    }
+
+    /**
+     * Sets the listener notified as each move is confirmed or taken back.
+     *
+     * @param moveListener The listener, or null to remove it
+     */
+    public void setMoveListener(MoveListener moveListener) {
+        this.moveListener = moveListener;
+    }
+
     private void resetState() {
+        // The index is reused from game to game, so it only grows once.
+        if(occupancies == null)
+            occupancies = new OccupancyIndex();
+        else
+            occupancies.clear();
         positions = new HashMap<>();
+        window = null;
         seenInitialPosition = false;
+        // The board state is kept, but back in the board's own coordinates,
+        // since the next game may be played the other way round.
+        if(rotate)
+            boardState.rotate180();
         rotate = false;
         lastReachable = null;
+        unrecognized = 0;
+        failedOccupancy = 0;
+        line = new ArrayList<>();
+        snapshot = null;
     }
 
     /**
@@ -88,39 +254,57 @@ public class MoveParser {
      */
     public void gotMessage(DgtMessage msg) {
         if(msg instanceof BoardDump) {
-            handleUpdate(((BoardDump) msg).board);
+            // Copy the dump, so the message itself is left untouched.
+            Board dump = ((BoardDump) msg).board;
+            if(boardState == null)
+                boardState = new Board(dump);
+            else
+                boardState.copyFrom(dump);
+            if(rotate)
+                boardState.rotate180();
+            handleUpdate();
+            if(unrecognized > 0)
+                recoverGap();
         }
         else if(msg instanceof FieldUpdate) {
             FieldUpdate update = (FieldUpdate) msg;
             if(boardState == null)
                 throw new IllegalArgumentException("Got FieldUpdate message before initial BoardDump.");
-            Board newState = new Board(boardState);
             int square = rotate?
                     // Rotation trick from https://www.chessprogramming.org/Flipping_Mirroring_and_Rotating#Rotationby180degrees
                     update.square ^ 63:
                     update.square;
             if(update.role == null) {
-                if(newState.roleAt(square) == null) {
+                if(boardState.roleAt(square) == null) {
                     throw new RuntimeException("Piece removed from empty square.");
                 }
-                newState.discard(square);
+                boardState.discard(square);
             }
             else {
-                newState.put(square, update.color, update.role);
+                boardState.put(square, update.color, update.role);
             }
-            handleUpdate(newState);
+            changedSinceClock = true;
+            handleUpdate();
+            if(unrecognized >= GAP_UPDATES)
+                recoverGap();
         }
         else if(msg instanceof  BWTime) {
             if(lastReachable != null) {
                 if(rotate)
                     msg = ((BWTime) msg).rotate();
                 lastReachable.timeInfo = (BWTime) msg;
+                snapshot = null;
+                // The clock state before the first move isn't part of the game.
+                if(moveListener != null && lastReachable.ply > 0)
+                    moveListener.clockUpdated(lastReachable.timeInfo, lastReachable.ply - 1);
+                if(unrecognized > 0 && !changedSinceClock)
+                    recoverGap();
             }
+            changedSinceClock = false;
         }
     }
 
-    private void handleUpdate(Board newState) {
-        boardState = newState;
+    private void handleUpdate() {
         if(!seenInitialPosition) {
             preInitialPosition();
         }
@@ -130,28 +314,45 @@ public class MoveParser {
     }
 
     private void preInitialPosition() {
+        if(positionWindow > 0 && window == null)
+            window = new ArrayDeque<>(positionWindow + 1);
+
         if(boardState.equalSetup(initialPosition)) {
             seenInitialPosition = true;
             lastReachable = new ReachablePosition(initialPosition, null, null);
-            positions.put(lastReachable, lastReachable);
-            addReachablePositions(lastReachable, positions);
+            confirm(lastReachable);
         }
         else if(boardState.equalSetup(rotatedInitialPosition)) {
             seenInitialPosition = true;
             lastReachable = new ReachablePosition(initialPosition, null, null);
-            positions.put(lastReachable, lastReachable);
-            addReachablePositions(lastReachable, positions);
+            confirm(lastReachable);
             boardState.rotate180();
             rotate = true;
         }
     }
 
     private void handleNormalUpdate() {
-        ReachablePosition p = new ReachablePosition(boardState, null, null);
-        ReachablePosition reachable = positions.get(p);
+        // A piece lifted and put back again, say.
+        if(boardState.equalSetup(lastReachable.board)) {
+            unrecognized = 0;
+            return;
+        }
+
+        /* In order of preference, the board is: a move from the current
+         * position, a different move from the previous position (a piece set
+         * down on the way to its destination, and then moved on), or an
+         * earlier position the game has been taken back to. */
+        ReachablePosition reachable = inferMove(lastReachable);
+        if(reachable == null && lastReachable.from != null)
+            reachable = inferMove(lastReachable.from);
+        if(reachable == null && occupancies.contains(boardState.occupied())) {
+            probe.board = boardState;
+            reachable = positions.get(probe);
+        }
+
         if(reachable != null) {
-            addReachablePositions(reachable, positions);
-            lastReachable = reachable;
+            confirm(reachable);
+            advance(reachable);
         }
         else {
             Result result = boardState.resultSignal();
@@ -159,6 +360,74 @@ public class MoveParser {
                 gameCallback.gameComplete(currentGame(result));
                 resetState();
             }
+            else if(gapSearch != null) {
+                unrecognized++;
+            }
+        }
+    }
+
+    private void recoverGap() {
+        unrecognized = 0;
+        /* Two moves change at least three squares, so board states closer
+         * to the last position than that are moves in progress, not gaps. */
+        if(Long.bitCount(lastReachable.board.diff(boardState)) < 3)
+            return;
+        long occupied = boardState.occupied();
+        int hash = boardState.pieceHash();
+        if(occupied == failedOccupancy && hash == failedHash)
+            return;
+
+        List<Move> moves = gapSearch.search(lastReachable.board, boardState);
+        if(moves == null) {
+            failedOccupancy = occupied;
+            failedHash = hash;
+            return;
+        }
+
+        ReachablePosition reachable = lastReachable;
+        for(Move move: moves) {
+            Board board = new Board(reachable.board);
+            board.play(move);
+            reachable = new ReachablePosition(board, reachable, move);
+            confirm(reachable);
+        }
+        advance(reachable);
+    }
+
+    private void advance(ReachablePosition p) {
+        ReachablePosition previous = lastReachable;
+        lastReachable = p;
+        unrecognized = 0;
+        failedOccupancy = 0;
+        snapshot = null;
+
+        /* Find where the new position branches off from the previous one.
+         * The moves after the branch point are retracted, and the moves
+         * leading from it to the new position confirmed. Usually, that's
+         * just the one move. */
+        ReachablePosition branch = previous;
+        ReachablePosition q = p;
+        while(branch.ply > q.ply)
+            branch = branch.from;
+        while(q.ply > branch.ply)
+            q = q.from;
+        while(q != branch) {
+            q = q.from;
+            branch = branch.from;
+        }
+
+        if(branch != previous) {
+            line.subList(branch.ply, line.size()).clear();
+            if(moveListener != null)
+                moveListener.movesRetracted(branch.ply);
+        }
+        int start = line.size();
+        for(q = p; q != branch; q = q.from)
+            line.add(q);
+        Collections.reverse(line.subList(start, line.size()));
+        if(moveListener != null) {
+            for(int i = start; i < line.size(); i++)
+                moveListener.moveConfirmed(line.get(i).playedMove(), i);
         }
     }
 
@@ -185,17 +454,14 @@ public class MoveParser {
     public Game currentGame(Result result) {
         if(lastReachable == null) return new Game(new ArrayList<>(), null);
 
-        ArrayList<PlayedMove> moves = new ArrayList<>();
-
-        for(ReachablePosition reachable = lastReachable; reachable.from != null; reachable = reachable.from) {
-            moves.add(0, new PlayedMove(
-                    moveToSan(reachable),
-                    reachable.timeInfo,
-                    reachable.board,
-                    reachable.via));
+        if(snapshot == null) {
+            ArrayList<PlayedMove> moves = new ArrayList<>(line.size());
+            for(ReachablePosition reachable: line)
+                moves.add(reachable.playedMove());
+            snapshot = moves;
         }
 
-        return new Game(moves, result);
+        return new Game(snapshot, result);
     }
 
     /**
@@ -207,12 +473,20 @@ public class MoveParser {
         return new Board(boardState);
     }
 
-    private static String moveToSan(ReachablePosition r) {
+    /**
+     * Formats a move in standard algebraic notation.
+     *
+     * @param before The position before the move
+     * @param via The move
+     * @param after The position after the move
+     * @return The SAN of the move
+     */
+    static String moveToSan(Board before, Move via, Board after) {
         StringBuilder sb = new StringBuilder();
         // Castling is easy; we just have to check whether it's long or short.
-        if(r.via.type == Move.CASTLING) {
+        if(via.type == Move.CASTLING) {
             sb.append(
-                    Square.file(r.via.to) == 7?
+                    Square.file(via.to) == 7?
                         "O-O":
                         "O-O-O");
         }
@@ -220,16 +494,16 @@ public class MoveParser {
          * literal "x" in the case of a capture, and finally the target
          * square. */
         else {
-            if (r.via.role == Role.PAWN) {
+            if (via.role == Role.PAWN) {
                 // For pawn captures, the prefix is the origin file.
-                if (r.via.capture) {
-                    sb.append(files[Square.file(r.via.from)]);
+                if (via.capture) {
+                    sb.append(files[Square.file(via.from)]);
                 }
             }
             else {
                 /* Non-pawn moves always have a prefix. First is the piece
                  * code, then possibly a disambiguation of the origin square. */
-                sb.append(r.via.role.symbol);
+                sb.append(via.role.symbol);
 
                 /* Disambiguate the origin square if necessary.
                  *
@@ -239,25 +513,16 @@ public class MoveParser {
                  * The relevant moves for disambiguation are the legal moves
                  * from the previous position that move the same piece type to
                  * the same square as the move played to reach the position.
-                 * Not sure if the check for promotion is strictly necessary
-                 * (since pawn moves are filtered out already), but shakmaty
-                 * has the check, so better safe than sorry.
+                 * Rather than generating all the legal moves, we only look at
+                 * the origins of the legal moves of the piece type to the
+                 * target square, other than the one the move came from.
                  */
-                MoveList moves = new MoveList();
-                r.from.board.legalMoves(moves);
+                long others = before.legalOrigins(via.role, via.to) & ~(1L << via.from);
                 boolean rank = false;
                 boolean file = false;
-                for (Move m : moves) {
-                    /* We ignore moves that:
-                     * - Have a different destination
-                     * - Move a different piece
-                     * - Promote differently (XXX: should be extraneous?)
-                     * - Come from the same square (i.e. it's the *same* move as `r.via`).
-                     */
-                    if (m.to != r.via.to || m.role != r.via.role || m.promotion != r.via.promotion || m.from == r.via.from)
-                        continue;
-
-                    if (Square.rank(m.from) == Square.rank(r.via.from) || Square.file(m.from) != Square.file(r.via.from)) {
+                for(; others != 0; others &= others - 1) {
+                    int from = Long.numberOfTrailingZeros(others);
+                    if (Square.rank(from) == Square.rank(via.from) || Square.file(from) != Square.file(via.from)) {
                         file = true;
                     }
                     else {
@@ -265,22 +530,22 @@ public class MoveParser {
                     }
                 }
                 if(file)
-                    sb.append(files[Square.file(r.via.from)]);
+                    sb.append(files[Square.file(via.from)]);
                 if(rank)
-                    sb.append(ranks[Square.rank(r.via.from)]);
+                    sb.append(ranks[Square.rank(via.from)]);
             }
 
-            if (r.via.capture)
+            if (via.capture)
                 sb.append('x');
 
-            sb.append(squareString(r.via.to));
+            sb.append(squareString(via.to));
+            if(via.promotion != null)
+                sb.append('=').append(via.promotion.symbol);
         }
 
         // Any move can be check or checkmate, so we add that last.
-        if(r.board.isCheck()) {
-            MoveList moves = new MoveList();
-            r.board.legalMoves(moves);
-            if(moves.size() > 0)
+        if(after.isCheck()) {
+            if(after.hasAnyLegalMove())
                 sb.append('+');
             else
                 sb.append('#');
@@ -295,33 +560,170 @@ public class MoveParser {
         return files[Square.file(square)] + ranks[Square.rank(square)];
     }
 
-    private static void addReachablePositions(ReachablePosition from, Map<ReachablePosition, ReachablePosition> positions) {
-        MoveList moves = new MoveList();
-        from.board.legalMoves(moves);
-        for(Move m: moves) {
-            Board newBoard = new Board(from.board);
-            newBoard.play(m);
-            ReachablePosition reachable = new ReachablePosition(newBoard, from, m);
-            positions.put(reachable, reachable);
+    private ReachablePosition inferMove(ReachablePosition from) {
+        if(!inferMove(from.board, boardState, candidate, scratch))
+            return null;
+        return new ReachablePosition(new Board(scratch), from, new Move(candidate));
+    }
+
+    /**
+     * Works out which move, if any, leads from a position to a board state,
+     * from the squares that differ between them: a normal move or promotion
+     * changes two squares, en passant three, and castling four. The squares
+     * that have been vacated give the origin of the move (and the rook for
+     * castling); any candidate is then checked for legality and played to
+     * make sure it gives exactly the board state.
+     *
+     * @param board The position to move from
+     * @param target The board state to reach
+     * @param move Set to the move, if there is one
+     * @param scratch Set to the position after the move, if there is one
+     * @return True if a single legal move leads from board to target
+     */
+    static boolean inferMove(Board board, Board target, Move move, Board scratch) {
+        long changed = board.diff(target);
+        int count = Long.bitCount(changed);
+        if(count < 2 || count > 4)
+            return false;
+
+        long vacated = changed & board.occupied() & ~target.occupied();
+        long filled = changed & ~vacated;
+        if(vacated == 0 || filled == 0)
+            return false;
+
+        if(count == 2) {
+            if(Long.bitCount(vacated) != 1)
+                return false;
+            int origin = Long.numberOfTrailingZeros(vacated);
+            int to = Long.numberOfTrailingZeros(filled);
+            Role role = board.roleAt(origin);
+            int rank = Square.rank(to);
+            move.type = Move.NORMAL;
+            move.role = role;
+            move.from = origin;
+            move.to = to;
+            move.capture = board.roleAt(to) != null;
+            move.promotion = role == Role.PAWN && (rank == 0 || rank == 7)? target.roleAt(to): null;
         }
+        else if(count == 3) {
+            // The capturing pawn is the vacated square diagonally behind
+            // the destination.
+            if(Long.bitCount(filled) != 1)
+                return false;
+            int to = Long.numberOfTrailingZeros(filled);
+            int origin = -1;
+            for(long v = vacated; v != 0; v &= v - 1) {
+                int sq = Long.numberOfTrailingZeros(v);
+                if(Square.file(sq) != Square.file(to))
+                    origin = sq;
+            }
+            if(origin < 0)
+                return false;
+            move.type = Move.EN_PASSANT;
+            move.role = Role.PAWN;
+            move.from = origin;
+            move.to = to;
+            move.capture = true;
+            move.promotion = null;
+        }
+        else {
+            // Castling moves are encoded as the king capturing its rook.
+            if(Long.bitCount(vacated) != 2)
+                return false;
+            int first = Long.numberOfTrailingZeros(vacated);
+            int second = 63 - Long.numberOfLeadingZeros(vacated);
+            boolean kingFirst = board.roleAt(first) == Role.KING;
+            move.type = Move.CASTLING;
+            move.role = Role.KING;
+            move.from = kingFirst? first: second;
+            move.to = kingFirst? second: first;
+            move.capture = false;
+            move.promotion = null;
+        }
+
+        if(!board.isLegal(move))
+            return false;
+        scratch.copyFrom(board);
+        scratch.play(move);
+        return scratch.equalSetup(target);
+    }
+
+    private void confirm(ReachablePosition p) {
+        addPosition(p);
+        if(window == null)
+            return;
+
+        /* Move the position to the back of the window, then forget the
+         * oldest positions until the window is back within its bounds. The
+         * window holds each position at most once, so a position revisited
+         * repeatedly (pieces being adjusted, say) doesn't push older
+         * positions out. */
+        if(p.inWindow)
+            window.removeIf(q -> q == p);
+        p.inWindow = true;
+        window.addLast(p);
+
+        while(window.size() > positionWindow)
+            forget(window.removeFirst());
     }
 
+    private void forget(ReachablePosition p) {
+        /* The position itself stays reachable through the move history. The
+         * identity check leaves the entry alone if the same setup has since
+         * been reached along a different path. */
+        p.inWindow = false;
+        if(positions.get(p) == p)
+            removePosition(p);
+    }
+
+    private void addPosition(ReachablePosition p) {
+        // Replacing an entry with an equal setup leaves the occupancy count
+        // unchanged.
+        if(positions.put(p, p) == null)
+            occupancies.add(p.board.occupied());
+    }
+
+    private void removePosition(ReachablePosition p) {
+        if(positions.remove(p) != null)
+            occupancies.remove(p.board.occupied());
+    }
+
+    // For testing.
+    int positionCount() { return positions.size(); }
+
     private static class ReachablePosition {
         Board board;
         ReachablePosition from;
         Move via;
+        // The number of moves leading to the position.
+        int ply;
         BWTime timeInfo;
+        // The move leading to the position, made when first needed.
+        private PlayedMove played;
+        // Only used when the position window is bounded.
+        boolean inWindow;
 
         ReachablePosition(Board b, ReachablePosition f, Move v) {
             board = b;
             from = f;
             via = v;
+            ply = f == null? 0: f.ply + 1;
+        }
+
+        PlayedMove playedMove() {
+            // The clock state arrives after the move, so the move is made
+            // again if it has changed since.
+            if(played == null)
+                played = new PlayedMove(from.board, timeInfo, board, via);
+            else if(played.clockInfo != timeInfo)
+                played = played.withClockInfo(timeInfo);
+            return played;
         }
 
         /* hashCode() can't use board.incrementalHash, since that includes the
          * turn member in the hash computation, which messes things up since we
          * don't track turn in the board setup. */
-        public int hashCode() { return ZobristHash.hashPieces(board); }
+        public int hashCode() { return board.pieceHash(); }
         public boolean equals(Object o) {
             if(!(o instanceof ReachablePosition)) return false;
             return board.equalSetup(((ReachablePosition) o).board);
@@ -0,0 +1,130 @@
+package org.riisholt.dgtdriver.moveparser;
+
+import java.util.Arrays;
+
+/**
+ * A multiset of occupancy bitboards, used by {@link MoveParser} to reject
+ * board states that can't be a known position before looking at the pieces.
+ * Implemented as an open addressing hash table with linear probing over
+ * primitive arrays, so probing it neither allocates nor boxes. Any long keys
+ * will do, and {@link GapSearch} uses it for the positions it has searched.
+ */
+class OccupancyIndex {
+    private long[] keys;
+    private int[] counts;
+    private int size;
+
+    OccupancyIndex() {
+        keys = new long[64];
+        counts = new int[64];
+        size = 0;
+    }
+
+    /**
+     * Is there at least one position with this occupancy?
+     *
+     * @param occupied The occupancy bitboard to look for
+     * @return True if the occupancy has been added more times than removed
+     */
+    boolean contains(long occupied) {
+        int mask = keys.length - 1;
+        for(int i = slot(occupied, mask); counts[i] != 0; i = (i + 1) & mask) {
+            if(keys[i] == occupied)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds one position with the given occupancy.
+     *
+     * @param occupied The occupancy bitboard of the position
+     */
+    void add(long occupied) {
+        int mask = keys.length - 1;
+        int i = slot(occupied, mask);
+        while(counts[i] != 0) {
+            if(keys[i] == occupied) {
+                counts[i]++;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = occupied;
+        counts[i] = 1;
+        size++;
+
+        // Keep the load factor at or below 1/2.
+        if(2*size > keys.length)
+            grow();
+    }
+
+    /**
+     * Removes one position with the given occupancy. Removing an occupancy
+     * that isn't present does nothing.
+     *
+     * @param occupied The occupancy bitboard of the position
+     */
+    void remove(long occupied) {
+        int mask = keys.length - 1;
+        int i = slot(occupied, mask);
+        while(counts[i] != 0 && keys[i] != occupied)
+            i = (i + 1) & mask;
+        if(counts[i] == 0)
+            return;
+        if(--counts[i] > 0)
+            return;
+
+        /* The slot is now empty. Shift later entries of the probe sequence
+         * back into the hole, so lookups don't stop short of them. */
+        size--;
+        int hole = i;
+        for(int j = (i + 1) & mask; counts[j] != 0; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            // Move the entry unless its home slot lies cyclically in (hole, j].
+            if(hole <= j? (home <= hole || home > j): (home <= hole && home > j)) {
+                keys[hole] = keys[j];
+                counts[hole] = counts[j];
+                counts[j] = 0;
+                hole = j;
+            }
+        }
+    }
+
+    /**
+     * Removes all occupancies, keeping the allocated capacity.
+     */
+    void clear() {
+        Arrays.fill(counts, 0);
+        size = 0;
+    }
+
+    /**
+     * The number of distinct occupancies in the index.
+     *
+     * @return The number of distinct occupancies
+     */
+    int size() { return size; }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new long[oldKeys.length * 2];
+        counts = new int[oldCounts.length * 2];
+        int mask = keys.length - 1;
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldCounts[i] == 0)
+                continue;
+            int j = slot(oldKeys[i], mask);
+            while(counts[j] != 0)
+                j = (j + 1) & mask;
+            keys[j] = oldKeys[i];
+            counts[j] = oldCounts[i];
+        }
+    }
+
+    private static int slot(long occupied, int mask) {
+        // Fibonacci hashing; the high bits of the product are the best mixed.
+        return (int) ((occupied * 0x9e3779b97f4a7c15L) >>> 40) & mask;
+    }
+}
@@ -5,12 +5,11 @@ import org.riisholt.dgtdriver.game.Board;
 import org.riisholt.dgtdriver.game.Move;
 
 /**
- * A move played during a game.
+ * A move played during a game. The move's SAN and the board after the move
+ * are computed the first time they're asked for, so consumers that only
+ * need the moves themselves (UCI output, say) don't pay for them.
  */
 public class PlayedMove {
-    /** The move's representation in standard algebraic notation. */
-    public final String san;
-
     /**
      * The state of the clock when the move was played. The move parser
      * corrects for board orientation, such that the linked BWTime object
@@ -19,18 +18,25 @@ public class PlayedMove {
     public final BWTime clockInfo;
 
     /**
-     * The current state of the board, after the played move. This member is a
-     * copy of the board state in the move parser and can be freely modified
-     * by client code if needed.
-     */
-    public final Board board;
-
-    /**
-     * The move played. Like the board member, this is a copy of the data from
-     * the move parser and can be freely modified by client code when needed.
+     * The move played. This is a copy of the data from the move parser, but
+     * the move parser hands out the same PlayedMove every time the move is
+     * part of a {@link MoveParser#currentGame(org.riisholt.dgtdriver.game.Result)
+     * current game}, so changes to it are seen by other users of the game.
+     * Copy it before modifying it.
      */
     public final Move move;
 
+    /* The positions before and after the move, shared with the move parser
+     * and never modified, from which the SAN and the board are made when
+     * they're first needed. The position before the move is null if the SAN
+     * was supplied to the constructor. */
+    private final Board before;
+    private final Board after;
+    /* Computed on first use. Whichever thread gets there first, the value
+     * is the same, and volatile makes sure another thread sees all of it. */
+    private volatile String san;
+    private volatile Board board;
+
     /**
      * Utility class constructor.
      *
@@ -44,5 +50,75 @@ public class PlayedMove {
         this.clockInfo = clockInfo;
         this.board = new Board(board);
         this.move = new Move(move);
+        this.before = null;
+        this.after = this.board;
+    }
+
+    PlayedMove(Board before, BWTime clockInfo, Board after, Move move) {
+        this.clockInfo = clockInfo;
+        this.move = new Move(move);
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Makes a move whose SAN and board are computed when first asked for,
+     * for code that builds games of its own. Unlike the public constructor,
+     * the boards are kept, not copied, and must not be modified afterwards.
+     *
+     * @param before Board state before the move
+     * @param clockInfo Clock state, or null
+     * @param after Board state after the move
+     * @param move Move played
+     * @return The played move
+     */
+    public static PlayedMove sharing(Board before, BWTime clockInfo, Board after, Move move) {
+        return new PlayedMove(before, clockInfo, after, move);
+    }
+
+    private PlayedMove(PlayedMove m, BWTime clockInfo) {
+        this.clockInfo = clockInfo;
+        this.move = m.move;
+        this.before = m.before;
+        this.after = m.after;
+        this.san = m.san;
+        this.board = m.board;
+    }
+
+    /**
+     * The same move, with a different clock state.
+     *
+     * @param clockInfo The new clock state
+     * @return A PlayedMove sharing its move, SAN and board with this one
+     */
+    PlayedMove withClockInfo(BWTime clockInfo) {
+        return new PlayedMove(this, clockInfo);
+    }
+
+    /**
+     * The move's representation in standard algebraic notation.
+     *
+     * @return The SAN of the move
+     */
+    public String san() {
+        String s = san;
+        if(s == null)
+            san = s = MoveParser.moveToSan(before, move, after);
+        return s;
+    }
+
+    /**
+     * The state of the board after the played move. The board is a copy of
+     * the board state in the move parser, made on the first call; like the
+     * move member, the same board is seen by every user of the move, so copy
+     * it before modifying it.
+     *
+     * @return The board after the move
+     */
+    public Board board() {
+        Board b = board;
+        if(b == null)
+            board = b = new Board(after);
+        return b;
     }
 }
@@ -0,0 +1,237 @@
+package org.riisholt.dgtdriver.pgn;
+
+import org.riisholt.dgtdriver.BWTime;
+import org.riisholt.dgtdriver.game.Result;
+import org.riisholt.dgtdriver.moveparser.Game;
+import org.riisholt.dgtdriver.moveparser.MoveParser;
+import org.riisholt.dgtdriver.moveparser.PlayedMove;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * <p>Keeps a PGN file up to date with a game as it's played, for live
+ * broadcasts. The sink is a {@link MoveParser.MoveListener}; as moves are
+ * confirmed, taken back, or given new clock times, only the end of the file
+ * is rewritten, so the work per move doesn't depend on the length of the
+ * game. When the game is {@link #finish(Result) finished}, the result is
+ * written in place in the Result tag and the game termination marker.</p>
+ *
+ * <p>The file is a complete PGN game at all times, the same as
+ * {@link PgnWriter#writeGame(Game, Map, boolean)} writes, except that the
+ * Result tag is followed by spaces to leave room for the result. While the
+ * game is in progress its result is "*".</p>
+ *
+ * <p>A sink is used for a single game. Since the move parser keeps its move
+ * listener from game to game, the listener should be replaced when the game
+ * is complete. Since the game callback is given to the parser's
+ * constructor, the sink and the parser are kept in arrays that the callback
+ * can see:</p>
+ *
+ * <pre>
+ * LivePgnSink[] sink = {new LivePgnSink(path, tags, true)};
+ * MoveParser[] parser = new MoveParser[1];
+ * parser[0] = new MoveParser(game -&gt; {
+ *     try {
+ *         sink[0].finish(game.result);
+ *         sink[0] = new LivePgnSink(nextPath(), tags, true);
+ *         parser[0].setMoveListener(sink[0]);
+ *     }
+ *     catch(IOException e) {
+ *         throw new UncheckedIOException(e);
+ *     }
+ * });
+ * parser[0].setMoveListener(sink[0]);
+ * </pre>
+ *
+ * <p>The listener methods can't throw checked exceptions, so they throw an
+ * {@link UncheckedIOException} if writing the file fails.</p>
+ */
+public class LivePgnSink implements MoveParser.MoveListener, Closeable {
+    // The longest Result tag, which the initial "*" is padded to.
+    private static final int RESULT_TAG_LENGTH = "[Result \"1/2-1/2\"]".length();
+
+    private final FileChannel channel;
+    private final boolean includeClock;
+    private final long resultTagOffset;
+    private final long moveTextOffset;
+    private long size;
+
+    // The file offset, SAN and latest clock state of each move.
+    private long[] offsets = new long[64];
+    private final ArrayList<String> sans = new ArrayList<>();
+    private final ArrayList<BWTime> clocks = new ArrayList<>();
+    // The length in bytes of the last move, as last written.
+    private int lastMoveLength;
+
+    private final StringBuilder text = new StringBuilder();
+    private final PgnWriter writer = new PgnWriter(text);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer bytes = ByteBuffer.allocate(256);
+
+    /**
+     * Creates the PGN file, or empties it if it exists, and writes the tag
+     * section and the move text of a game with no moves.
+     *
+     * @param path The file to write
+     * @param tags Tag values, by tag name, as for
+     *             {@link PgnWriter#writeGame(Game, Map, boolean)}
+     * @param includeClock Include clock times for each move, if available
+     * @throws IOException if the file can't be created or written
+     * @throws IllegalArgumentException if a tag name isn't a valid PGN symbol
+     */
+    public LivePgnSink(Path path, Map<String, String> tags, boolean includeClock) throws IOException {
+        this.includeClock = includeClock;
+        writer.writeTags(tags, null);
+
+        // Pad the Result tag, so any result fits in its place.
+        int resultTag = text.indexOf("[Result \"*\"]");
+        int lineEnd = text.indexOf("\n", resultTag);
+        char[] padding = new char[RESULT_TAG_LENGTH - (lineEnd - resultTag)];
+        Arrays.fill(padding, ' ');
+        text.insert(lineEnd, padding);
+        text.append('\n');
+        resultTagOffset = text.substring(0, resultTag).getBytes(StandardCharsets.UTF_8).length;
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            moveTextOffset = write(0, text);
+            writeEnd(null);
+        }
+        catch(IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void moveConfirmed(PlayedMove move, int ply) {
+        /* Take back the moves being replaced first, so that the last move
+         * left is rewritten and its length is known. */
+        if(ply < sans.size())
+            movesRetracted(ply);
+        if(ply == offsets.length)
+            offsets = Arrays.copyOf(offsets, 2*ply);
+        offsets[ply] = ply == 0? moveTextOffset: offsets[ply - 1] + lastMoveLength;
+        sans.add(move.san());
+        clocks.add(move.clockInfo);
+        tryWriteEnd();
+    }
+
+    @Override
+    public void movesRetracted(int ply) {
+        retract(ply);
+        tryWriteEnd();
+    }
+
+    @Override
+    public void clockUpdated(BWTime clockInfo, int ply) {
+        if(ply != sans.size() - 1)
+            return;
+        BWTime previous = clocks.set(ply, clockInfo);
+        // Only the time of the player who moved is written, in whole seconds.
+        if(includeClock && (previous == null || seconds(previous, ply) != seconds(clockInfo, ply)))
+            tryWriteEnd();
+    }
+
+    /**
+     * Ends the game, writing the result to the Result tag and the game
+     * termination marker, and closes the file.
+     *
+     * @param result The result of the game, or null to leave it as "*"
+     * @throws IOException if writing the file fails
+     */
+    public void finish(Result result) throws IOException {
+        try {
+            writeEnd(result);
+            text.setLength(0);
+            text.append("[Result \"").append(result != null? result.resultString(): "*").append("\"]");
+            while(text.length() < RESULT_TAG_LENGTH)
+                text.append(' ');
+            write(resultTagOffset, text);
+            channel.force(false);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Closes the file, leaving the game as it was last written.
+     *
+     * @throws IOException if closing the file fails
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void retract(int ply) {
+        sans.subList(ply, sans.size()).clear();
+        clocks.subList(ply, clocks.size()).clear();
+    }
+
+    private static long seconds(BWTime clockInfo, int ply) {
+        return (ply % 2 == 0? clockInfo.left: clockInfo.right).getSeconds();
+    }
+
+    private void tryWriteEnd() {
+        try {
+            writeEnd(null);
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /* Writes the end of the file: the last move, which is rewritten as its
+     * clock time changes, followed by the game termination marker. The moves
+     * before it are final, and left alone. */
+    private void writeEnd(Result result) throws IOException {
+        int plies = sans.size();
+        long offset = plies == 0? moveTextOffset: offsets[plies - 1];
+        text.setLength(0);
+        if(plies > 0) {
+            writer.writeMove(sans.get(plies - 1), plies - 1, includeClock? clocks.get(plies - 1): null);
+            // SAN and clock comments are plain ASCII, a byte per char.
+            lastMoveLength = text.length();
+        }
+        writer.writeResult(result);
+        text.append('\n');
+
+        long end = offset + write(offset, text);
+        if(end < size)
+            channel.truncate(end);
+        size = end;
+    }
+
+    private int write(long position, CharSequence chars) throws IOException {
+        // A char encodes to at most three bytes in UTF-8.
+        if(bytes.capacity() < 3*chars.length())
+            bytes = ByteBuffer.allocate(3*chars.length());
+        bytes.clear();
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(chars), bytes, true);
+        encoder.flush(bytes);
+        bytes.flip();
+        int length = bytes.remaining();
+        while(bytes.hasRemaining())
+            position += channel.write(bytes, position);
+        return length;
+    }
+}
@@ -0,0 +1,12 @@
+package org.riisholt.dgtdriver.pgn;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link PgnReader} when the input isn't valid PGN, or a game in it
+ * has an illegal or ambiguous move.
+ */
+public class PgnException extends IOException {
+    public PgnException(String msg) { super(msg); }
+    public PgnException(String msg, Throwable e) { super(msg, e); }
+}
@@ -0,0 +1,40 @@
+package org.riisholt.dgtdriver.pgn;
+
+import org.riisholt.dgtdriver.game.Board;
+import org.riisholt.dgtdriver.moveparser.Game;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A game read by {@link PgnReader}: the tags of the game, and the game
+ * itself.
+ */
+public class PgnGame {
+    /**
+     * The tags of the game, by tag name, in the order they were read.
+     */
+    public final Map<String, String> tags;
+
+    /**
+     * The moves and result of the game. The result is taken from the game
+     * termination marker, and is null if that's "*" or missing.
+     */
+    public final Game game;
+
+    private final Board startPosition;
+
+    PgnGame(Map<String, String> tags, Board startPosition, Game game) {
+        this.tags = Collections.unmodifiableMap(tags);
+        this.startPosition = startPosition;
+        this.game = game;
+    }
+
+    /**
+     * The position before the first move of the game. That's the standard
+     * initial position, unless the game has a FEN tag.
+     *
+     * @return A copy of the start position
+     */
+    public Board startPosition() { return new Board(startPosition); }
+}
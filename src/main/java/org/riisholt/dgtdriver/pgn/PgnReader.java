@@ -0,0 +1,587 @@
+package org.riisholt.dgtdriver.pgn;
+
+import org.riisholt.dgtdriver.BWTime;
+import org.riisholt.dgtdriver.game.*;
+import org.riisholt.dgtdriver.moveparser.Game;
+import org.riisholt.dgtdriver.moveparser.PlayedMove;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * <p>Reads games from PGN, one at a time. The input is read in large chunks
+ * and tokenized in place, without making a string of each line or move; the
+ * moves are parsed by matching their SAN against the legal moves of the
+ * position, so each move in the resulting {@link Game} has its board and a
+ * UCI form like the games made by the move parser.</p>
+ *
+ * <p>The reader handles the tag section, including a FEN tag for games not
+ * starting from the initial position, clock comments
+ * (<code>{[%clk 1:23:45]}</code>), which become the moves' clockInfo, and
+ * skips other comments, numeric annotation glyphs, move suffixes such as
+ * "!?", and variations.</p>
+ *
+ * <p>For large databases, {@link #readParallel(Path, ForkJoinPool, Consumer)}
+ * splits the file at game boundaries and reads the parts in parallel.</p>
+ */
+public class PgnReader implements Closeable {
+    private static final Role[] ROLES = Role.values();
+
+    private final Reader in;
+    private final char[] buffer = new char[1 << 16];
+    private int pos;
+    private int limit;
+    private int line = 1;
+    private boolean lineStart = true;
+
+    // The current token or comment, copied out of the buffer.
+    private char[] token = new char[64];
+    private int tokenLength;
+
+    private final MoveList legal = new MoveList();
+
+    /**
+     * Class constructor.
+     *
+     * @param in The PGN to read
+     */
+    public PgnReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads PGN from an input stream, encoded as UTF-8.
+     *
+     * @param in The PGN to read
+     */
+    public PgnReader(InputStream in) {
+        this(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads the next game.
+     *
+     * @return The game, or null at the end of the input
+     * @throws PgnException if the game isn't valid PGN, or has an illegal or
+     *                      ambiguous move
+     * @throws IOException if reading the input fails
+     */
+    public PgnGame next() throws IOException {
+        LinkedHashMap<String, String> tags = new LinkedHashMap<>();
+        skipWhitespace();
+        while(peek() == '[') {
+            readTag(tags);
+            skipWhitespace();
+        }
+        if(tags.isEmpty() && peek() == -1)
+            return null;
+
+        Board start;
+        String fen = tags.get("FEN");
+        try {
+            start = fen != null? Board.fromFen(fen): new Board();
+        }
+        catch(IllegalArgumentException e) {
+            throw new PgnException("Invalid FEN tag at line " + line + ".", e);
+        }
+        return readMoves(tags, start);
+    }
+
+    /**
+     * Reads all the remaining games.
+     *
+     * @param consumer Called with each game, in order
+     * @return The number of games read
+     * @throws IOException if reading the input fails, or a game isn't valid
+     */
+    public long readAll(Consumer<PgnGame> consumer) throws IOException {
+        long games = 0;
+        for(PgnGame game = next(); game != null; game = next()) {
+            consumer.accept(game);
+            games++;
+        }
+        return games;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private PgnGame readMoves(LinkedHashMap<String, String> tags, Board start) throws IOException {
+        ArrayList<PlayedMove> moves = new ArrayList<>();
+        Result result = null;
+        // The last move, which is added to the list when its clock comment,
+        // if any, has been read.
+        Board before = null;
+        Board board = start;
+        Move move = null;
+        BWTime clockInfo = null;
+        Duration whiteTime = Duration.ZERO;
+        Duration blackTime = Duration.ZERO;
+
+        while(true) {
+            skipWhitespace();
+            int c = peek();
+            if(c == -1 || c == '[')
+                break;
+            if(c == '{') {
+                readComment();
+                Duration time = clock();
+                if(time != null && move != null) {
+                    if(before.whiteAt(move.from))
+                        whiteTime = time;
+                    else
+                        blackTime = time;
+                    clockInfo = new BWTime(whiteTime, (byte) 0, blackTime, (byte) 0, (byte) 0);
+                }
+            }
+            else if(c == ';') {
+                skipLine();
+            }
+            else if(c == '(') {
+                skipVariation();
+            }
+            else if(c == '$') {
+                pos++;
+                while(isDigit(peek()))
+                    pos++;
+            }
+            else if(c == ')' || c == '}') {
+                throw new PgnException("Unexpected '" + (char) c + "' at line " + line + ".");
+            }
+            else {
+                readToken();
+                if(isResult("*")) {
+                    break;
+                }
+                else if(isResult("1-0") || isResult("0-1") || isResult("1/2-1/2")) {
+                    result = token[1] == '/'? Result.DRAW: token[0] == '1'? Result.WHITE_WIN: Result.BLACK_WIN;
+                    break;
+                }
+
+                // Move numbers may be attached to the move, as in "1.e4".
+                // Castling may be written with zeros, as in "0-0", so the
+                // number must be followed by a dot.
+                int i = 0;
+                while(i < tokenLength && isDigit(token[i]))
+                    i++;
+                if(i < tokenLength && token[i] != '.')
+                    i = 0;
+                while(i < tokenLength && token[i] == '.')
+                    i++;
+                if(i == tokenLength)
+                    continue;
+
+                if(move != null)
+                    moves.add(PlayedMove.sharing(before, clockInfo, board, move));
+                move = parseSan(board, i);
+                before = board;
+                board = new Board(before);
+                board.play(move);
+                clockInfo = null;
+            }
+        }
+        if(move != null)
+            moves.add(PlayedMove.sharing(before, clockInfo, board, move));
+        return new PgnGame(tags, start, new Game(moves, result));
+    }
+
+    private boolean isResult(String result) {
+        if(tokenLength != result.length())
+            return false;
+        for(int i = 0; i < tokenLength; i++) {
+            if(token[i] != result.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private Move parseSan(Board board, int start) throws IOException {
+        int end = tokenLength;
+        // Check, mate and annotation suffixes.
+        while(end > start && "+#!?".indexOf(token[end - 1]) >= 0)
+            end--;
+        int length = end - start;
+
+        board.legalMoves(legal);
+        if(length >= 3 && (token[start] == 'O' || token[start] == '0')) {
+            // Castling, with letters or digits.
+            boolean queenSide = length >= 5;
+            for(Move m: legal) {
+                if(m.type == Move.CASTLING && (m.to < m.from) == queenSide)
+                    return new Move(m);
+            }
+            throw illegalMove(start, end);
+        }
+
+        Role role = Role.PAWN;
+        int i = start;
+        int index = "NBRQK".indexOf(token[i]);
+        if(index >= 0) {
+            role = ROLES[index + 1];
+            i++;
+        }
+
+        Role promotion = null;
+        if(end - i >= 3) {
+            index = "NBRQ".indexOf(token[end - 1]);
+            if(index >= 0) {
+                promotion = ROLES[index + 1];
+                end -= token[end - 2] == '='? 2: 1;
+            }
+        }
+
+        if(end - i < 2 || !isFile(token[end - 2]) || !isRank(token[end - 1]))
+            throw new PgnException("Invalid move \"" + new String(token, start, tokenLength - start) + "\" at line " + line + ".");
+        int to = Square.square(token[end - 2] - 'a', token[end - 1] - '1');
+        end -= 2;
+
+        // Disambiguation, and the capture marker, which isn't checked.
+        int file = -1;
+        int rank = -1;
+        for(; i < end; i++) {
+            if(isFile(token[i]))
+                file = token[i] - 'a';
+            else if(isRank(token[i]))
+                rank = token[i] - '1';
+            else if(token[i] != 'x' && token[i] != ':' && token[i] != '-')
+                throw new PgnException("Invalid move \"" + new String(token, start, tokenLength - start) + "\" at line " + line + ".");
+        }
+
+        Move found = null;
+        for(Move m: legal) {
+            if(m.role != role || m.to != to || m.promotion != promotion || m.type == Move.CASTLING)
+                continue;
+            if((file >= 0 && Square.file(m.from) != file) || (rank >= 0 && Square.rank(m.from) != rank))
+                continue;
+            if(found != null)
+                throw new PgnException("Ambiguous move \"" + new String(token, start, tokenLength - start) + "\" at line " + line + ".");
+            found = m;
+        }
+        if(found == null)
+            throw illegalMove(start, tokenLength);
+        return new Move(found);
+    }
+
+    private PgnException illegalMove(int start, int end) {
+        return new PgnException("Illegal move \"" + new String(token, start, end - start) + "\" at line " + line + ".");
+    }
+
+    private static boolean isDigit(int c) { return '0' <= c && c <= '9'; }
+    private static boolean isFile(char c) { return 'a' <= c && c <= 'h'; }
+    private static boolean isRank(char c) { return '1' <= c && c <= '8'; }
+
+    /* The time in a clock comment, [%clk 1:23:45], in the current token.
+     * Tenths of seconds are ignored, and a dot between the minutes and the
+     * seconds is accepted, as written by Game.pgn(). */
+    private Duration clock() {
+        int i = indexOf("[%clk");
+        if(i < 0)
+            return null;
+        i += 5;
+        while(i < tokenLength && token[i] == ' ')
+            i++;
+        long seconds = 0;
+        int fields = 0;
+        while(fields < 3) {
+            int digits = 0;
+            long n = 0;
+            for(; i < tokenLength && isDigit(token[i]); i++, digits++)
+                n = 10*n + token[i] - '0';
+            if(digits == 0)
+                return null;
+            seconds = 60*seconds + n;
+            fields++;
+            if(fields < 3) {
+                if(i == tokenLength || (token[i] != ':' && token[i] != '.'))
+                    return null;
+                i++;
+            }
+        }
+        return Duration.ofSeconds(seconds);
+    }
+
+    private int indexOf(String s) {
+        outer:
+        for(int i = 0; i + s.length() <= tokenLength; i++) {
+            for(int j = 0; j < s.length(); j++) {
+                if(token[i + j] != s.charAt(j))
+                    continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private void readTag(LinkedHashMap<String, String> tags) throws IOException {
+        int tagLine = line;
+        read(); // [
+        skipSpaces();
+        StringBuilder name = new StringBuilder();
+        for(int c = peek(); c != -1 && !Character.isWhitespace(c) && c != '"' && c != ']'; c = peek())
+            name.append((char) read());
+        skipSpaces();
+        if(name.length() == 0 || read() != '"')
+            throw new PgnException("Invalid tag at line " + tagLine + ".");
+
+        StringBuilder value = new StringBuilder();
+        while(true) {
+            int c = read();
+            if(c == -1 || c == '\n')
+                throw new PgnException("Unterminated tag value at line " + tagLine + ".");
+            if(c == '"')
+                break;
+            if(c == '\\') {
+                c = read();
+                if(c == -1)
+                    throw new PgnException("Unterminated tag value at line " + tagLine + ".");
+            }
+            value.append((char) c);
+        }
+        skipSpaces();
+        if(read() != ']')
+            throw new PgnException("Invalid tag at line " + tagLine + ".");
+        tags.put(name.toString(), value.toString());
+    }
+
+    private void readToken() throws IOException {
+        tokenLength = 0;
+        for(int c = peek(); c != -1 && !Character.isWhitespace(c) && "{}();[$".indexOf(c) < 0; c = peek())
+            append((char) read());
+    }
+
+    private void readComment() throws IOException {
+        int commentLine = line;
+        read(); // {
+        tokenLength = 0;
+        for(int c = read(); c != '}'; c = read()) {
+            if(c == -1)
+                throw new PgnException("Unterminated comment at line " + commentLine + ".");
+            append((char) c);
+        }
+    }
+
+    private void append(char c) {
+        if(tokenLength == token.length)
+            token = Arrays.copyOf(token, 2*tokenLength);
+        token[tokenLength++] = c;
+    }
+
+    private void skipVariation() throws IOException {
+        int variationLine = line;
+        int depth = 0;
+        do {
+            int c = read();
+            if(c == -1)
+                throw new PgnException("Unterminated variation at line " + variationLine + ".");
+            else if(c == '(')
+                depth++;
+            else if(c == ')')
+                depth--;
+            else if(c == '{') {
+                pos--;
+                readComment();
+            }
+            else if(c == ';')
+                skipLine();
+        } while(depth > 0);
+    }
+
+    private void skipWhitespace() throws IOException {
+        while(true) {
+            int c = peek();
+            if(c == '%' && lineStart)
+                // An escaped line.
+                skipLine();
+            else if(c != -1 && Character.isWhitespace(c))
+                read();
+            else
+                return;
+        }
+    }
+
+    private void skipSpaces() throws IOException {
+        for(int c = peek(); c == ' ' || c == '\t'; c = peek())
+            read();
+    }
+
+    private void skipLine() throws IOException {
+        for(int c = read(); c != -1 && c != '\n'; c = read())
+            ;
+    }
+
+    private int peek() throws IOException {
+        if(pos == limit && !fill())
+            return -1;
+        return buffer[pos];
+    }
+
+    private int read() throws IOException {
+        if(pos == limit && !fill())
+            return -1;
+        char c = buffer[pos++];
+        lineStart = c == '\n';
+        if(lineStart)
+            line++;
+        return c;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        if(n <= 0)
+            return false;
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    /**
+     * <p>Reads a PGN file in parallel. The file is split into parts at game
+     * boundaries, and the parts read as separate tasks in the given pool.</p>
+     *
+     * <p>The consumer is called from several threads at once, and must be
+     * thread safe. The games of each part are passed on in order, but the
+     * parts are read in no particular order.</p>
+     *
+     * <p>A game is taken to start at a '[' that follows an empty line outside
+     * of a brace comment. A split point can fall inside a comment, though,
+     * and the comment is only known to be one when its closing brace is
+     * seen; so a comment that contains an empty line followed by a line
+     * starting with '[' may be split there, and the file fail to read. Such
+     * files should be read with {@link #readAll(Consumer)} instead.</p>
+     *
+     * @param path The PGN file, encoded as UTF-8
+     * @param forkJoinPool The pool to read the parts in
+     * @param consumer Called with each game
+     * @return The number of games read
+     * @throws IOException if reading the file fails, or a game isn't valid
+     */
+    public static long readParallel(Path path, ForkJoinPool forkJoinPool, Consumer<PgnGame> consumer) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] bounds = split(channel, 4*forkJoinPool.getParallelism());
+            List<ForkJoinTask<Long>> tasks = new ArrayList<>();
+            for(int i = 0; i + 1 < bounds.length; i++) {
+                long start = bounds[i];
+                long end = bounds[i + 1];
+                tasks.add(ForkJoinTask.adapt(() -> {
+                    try(PgnReader reader = new PgnReader(new ChannelInputStream(channel, start, end))) {
+                        return reader.readAll(consumer);
+                    }
+                    catch(IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+
+            try {
+                forkJoinPool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+            }
+            catch(RuntimeException e) {
+                // The exception may have been rethrown as a copy, so look for
+                // the original among the causes.
+                for(Throwable t = e; t != null; t = t.getCause()) {
+                    if(t instanceof IOException)
+                        throw (IOException) t;
+                }
+                throw e;
+            }
+
+            long games = 0;
+            for(ForkJoinTask<Long> task: tasks)
+                games += task.join();
+            return games;
+        }
+    }
+
+    /* Splits a file into about the given number of parts, at the start of
+     * games: a tag section after an empty line. The file offsets of the
+     * parts are returned, beginning with 0 and ending with the file size. */
+    static long[] split(FileChannel channel, int parts) throws IOException {
+        long size = channel.size();
+        long[] bounds = new long[parts + 1];
+        int n = 1;
+        ByteBuffer block = ByteBuffer.allocate(8192);
+        for(int i = 1; i < parts; i++) {
+            long bound = gameStart(channel, Math.max(size/parts*i, bounds[n - 1]), block);
+            if(bound > bounds[n - 1] && bound < size)
+                bounds[n++] = bound;
+        }
+        bounds[n++] = size;
+        return Arrays.copyOf(bounds, n);
+    }
+
+    /* Finds the start of the first game at or after a position, or returns
+     * the file size if there isn't one. */
+    static long gameStart(FileChannel channel, long position, ByteBuffer block) throws IOException {
+        // The number of newlines, ignoring carriage returns, since the last
+        // character that wasn't whitespace.
+        int newlines = 0;
+        boolean comment = false;
+        while(true) {
+            block.clear();
+            int n = channel.read(block, position);
+            if(n <= 0)
+                return channel.size();
+            for(int i = 0; i < n; i++) {
+                byte b = block.get(i);
+                /* Skip brace comments. A closing brace outside of one means
+                 * the search started inside a comment, and the lines before
+                 * it don't count either. */
+                if(comment || b == '{' || b == '}') {
+                    comment = b == '{' || comment && b != '}';
+                    newlines = 0;
+                }
+                else if(b == '[' && newlines >= 2)
+                    return position + i;
+                else if(b == '\n')
+                    newlines++;
+                else if(b != '\r' && b != ' ' && b != '\t')
+                    newlines = 0;
+            }
+            position += n;
+        }
+    }
+
+    /* Reads part of a file through positional reads, so several parts can
+     * be read from the same channel at once. */
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        ChannelInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == 1? b[0] & 0xff: -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(position >= end)
+                return -1;
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if(n > 0)
+                position += n;
+            return n;
+        }
+    }
+}
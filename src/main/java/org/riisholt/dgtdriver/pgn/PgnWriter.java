@@ -0,0 +1,329 @@
+package org.riisholt.dgtdriver.pgn;
+
+import org.riisholt.dgtdriver.BWTime;
+import org.riisholt.dgtdriver.game.Move;
+import org.riisholt.dgtdriver.game.Result;
+import org.riisholt.dgtdriver.game.Square;
+import org.riisholt.dgtdriver.moveparser.Game;
+import org.riisholt.dgtdriver.moveparser.PlayedMove;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * <p>Writes games as PGN or UCI move lists to an {@link Appendable}, such as
+ * a {@link Writer} or a {@link StringBuilder}. Games are written piece by
+ * piece straight to the output, with numbers and clock times formatted by
+ * hand, so writing a large archive of games doesn't build a string per game
+ * or a {@link java.util.Formatter} per clock comment.</p>
+ *
+ * <p>A complete PGN game is written by {@link #writeGame(Game, Map, boolean)},
+ * with a tag section starting with the seven tag roster, followed by any
+ * other tags:</p>
+ *
+ * <pre>
+ * try(PgnWriter writer = new PgnWriter(Files.newOutputStream(path))) {
+ *     for(Game game: games) {
+ *         Map&lt;String, String&gt; tags = new LinkedHashMap&lt;&gt;();
+ *         tags.put("White", ...);
+ *         tags.put("Black", ...);
+ *         writer.writeGame(game, tags, true);
+ *     }
+ * }
+ * </pre>
+ *
+ * <p>The move text written by {@link #writeMoves(Game, boolean)} and
+ * {@link #writeUci(Game)} is the same as {@link Game#pgn(boolean)} and
+ * {@link Game#uci()} return.</p>
+ */
+public class PgnWriter implements Flushable, Closeable {
+    private static final String[] ROSTER = {"Event", "Site", "Date", "Round", "White", "Black", "Result"};
+    private static final String[] ROSTER_DEFAULTS = {"?", "?", "????.??.??", "?", "?", "?", "*"};
+
+    private final Appendable out;
+    // Scratch space for formatting numbers.
+    private final char[] digits = new char[20];
+
+    /**
+     * Class constructor.
+     *
+     * @param out Where to write the games
+     */
+    public PgnWriter(Appendable out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes games to an output stream, encoded as UTF-8. The output is
+     * buffered, so the writer must be flushed or closed when done.
+     *
+     * @param out Where to write the games
+     */
+    public PgnWriter(OutputStream out) {
+        this(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Writes a complete game in PGN: the tag section, an empty line, the
+     * move text, and another empty line to separate it from the next game.
+     *
+     * @param game The game to write
+     * @param tags Tag values, by tag name. The seven tag roster is written
+     *             first, with "?" for missing values; the other tags follow,
+     *             in the iteration order of the map. The Result tag is
+     *             always taken from the game.
+     * @param includeClock Include clock times for each move, if available
+     * @throws IOException if writing to the output fails
+     * @throws IllegalArgumentException if a tag name isn't a valid PGN symbol
+     */
+    public void writeGame(Game game, Map<String, String> tags, boolean includeClock) throws IOException {
+        writeTags(game, tags);
+        out.append('\n');
+        writeMoves(game, includeClock);
+        out.append('\n');
+    }
+
+    /**
+     * Writes a complete game in PGN with only the seven tag roster, all
+     * unknown except the result.
+     *
+     * @param game The game to write
+     * @param includeClock Include clock times for each move, if available
+     * @throws IOException if writing to the output fails
+     */
+    public void writeGame(Game game, boolean includeClock) throws IOException {
+        writeGame(game, Collections.<String, String>emptyMap(), includeClock);
+    }
+
+    /**
+     * Writes the tag section of a game.
+     *
+     * @param game The game, which gives the value of the Result tag
+     * @param tags Tag values, by tag name
+     * @throws IOException if writing to the output fails
+     * @throws IllegalArgumentException if a tag name isn't a valid PGN symbol
+     * @see #writeGame(Game, Map, boolean)
+     */
+    public void writeTags(Game game, Map<String, String> tags) throws IOException {
+        writeTags(tags, game.result);
+    }
+
+    /**
+     * Writes the tag section of a game that hasn't necessarily been played
+     * yet.
+     *
+     * @param tags Tag values, by tag name
+     * @param result The value of the Result tag, or null for "*"
+     * @throws IOException if writing to the output fails
+     * @throws IllegalArgumentException if a tag name isn't a valid PGN symbol
+     * @see #writeGame(Game, Map, boolean)
+     */
+    public void writeTags(Map<String, String> tags, Result result) throws IOException {
+        for(int i = 0; i < ROSTER.length; i++) {
+            String value;
+            if(ROSTER[i].equals("Result"))
+                value = resultString(result);
+            else
+                value = tags.getOrDefault(ROSTER[i], ROSTER_DEFAULTS[i]);
+            writeTag(ROSTER[i], value);
+        }
+        for(Map.Entry<String, String> tag: tags.entrySet()) {
+            if(!isRoster(tag.getKey()))
+                writeTag(tag.getKey(), tag.getValue());
+        }
+    }
+
+    /**
+     * Writes the move text of a game in PGN, with one full move per line
+     * and the result at the end.
+     *
+     * @param game The game to write
+     * @param includeClock Include clock times for each move, if available
+     * @throws IOException if writing to the output fails
+     */
+    public void writeMoves(Game game, boolean includeClock) throws IOException {
+        int ply = 0;
+        for(PlayedMove m: game.moves) {
+            writeMove(m.san(), ply, includeClock? m.clockInfo: null);
+            ply++;
+        }
+        writeResult(game.result);
+    }
+
+    /**
+     * Writes a single move of the move text, for writing a game one move at
+     * a time. White moves are preceded by the move number, and black moves
+     * end the line.
+     *
+     * @param san The move in standard algebraic notation
+     * @param ply The index of the move in the game, counting from 0
+     * @param clockInfo The clock state after the move, or null to leave out
+     *                  the clock comment
+     * @throws IOException if writing to the output fails
+     * @see #writeMoves(Game, boolean)
+     */
+    public void writeMove(String san, int ply, BWTime clockInfo) throws IOException {
+        if(ply % 2 == 0) {
+            appendInt(1 + ply/2);
+            out.append(". ").append(san);
+            if(clockInfo != null)
+                appendClock(clockInfo.left);
+        }
+        else {
+            out.append(' ').append(san);
+            if(clockInfo != null)
+                appendClock(clockInfo.right);
+            out.append('\n');
+        }
+    }
+
+    /**
+     * Writes the game termination marker that ends the move text.
+     *
+     * @param result The result of the game, or null for "*"
+     * @throws IOException if writing to the output fails
+     */
+    public void writeResult(Result result) throws IOException {
+        out.append(' ').append(resultString(result)).append('\n');
+    }
+
+    /**
+     * Writes the moves of a game in UCI notation, numbered and with one full
+     * move per line like PGN move text.
+     *
+     * @param game The game to write
+     * @throws IOException if writing to the output fails
+     * @see Game#uci()
+     */
+    public void writeUci(Game game) throws IOException {
+        int ply = 0;
+        for(PlayedMove m: game.moves) {
+            if(ply % 2 == 0) {
+                appendInt(1 + ply/2);
+                out.append(". ");
+                appendUci(m.move);
+            }
+            else {
+                out.append(' ');
+                appendUci(m.move);
+                out.append('\n');
+            }
+            ply++;
+        }
+        writeResult(game.result);
+    }
+
+    /**
+     * Flushes the output, if it can be flushed.
+     *
+     * @throws IOException if flushing the output fails
+     */
+    @Override
+    public void flush() throws IOException {
+        if(out instanceof Flushable)
+            ((Flushable) out).flush();
+    }
+
+    /**
+     * Closes the output, if it can be closed.
+     *
+     * @throws IOException if closing the output fails
+     */
+    @Override
+    public void close() throws IOException {
+        if(out instanceof Closeable)
+            ((Closeable) out).close();
+    }
+
+    private static boolean isRoster(String name) {
+        for(String tag: ROSTER) {
+            if(tag.equals(name))
+                return true;
+        }
+        return false;
+    }
+
+    private void writeTag(String name, String value) throws IOException {
+        if(!isSymbol(name))
+            throw new IllegalArgumentException("Invalid PGN tag name: " + name);
+        out.append('[').append(name).append(" \"");
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            // Quotes and backslashes in tag values are escaped.
+            if(c == '"' || c == '\\')
+                out.append('\\');
+            out.append(c);
+        }
+        out.append("\"]\n");
+    }
+
+    private static boolean isSymbol(String name) {
+        if(name.isEmpty() || !Character.isLetterOrDigit(name.charAt(0)))
+            return false;
+        for(int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if(!Character.isLetterOrDigit(c) && "_+#=:-".indexOf(c) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static String resultString(Result result) {
+        return result != null? result.resultString(): "*";
+    }
+
+    private void appendUci(Move move) throws IOException {
+        int to = move.to;
+        // Castling moves go to the king's target square, not the rook's.
+        if(move.type == Move.CASTLING)
+            to = Square.combine(move.to < move.from? Square.C1: Square.G1, move.from);
+        appendSquare(move.from);
+        appendSquare(to);
+        if(move.promotion != null)
+            out.append(Character.toLowerCase(move.promotion.symbol.charAt(0)));
+    }
+
+    private void appendSquare(int square) throws IOException {
+        out.append((char) ('a' + Square.file(square))).append((char) ('1' + Square.rank(square)));
+    }
+
+    /* Clock comments use the same format as the time strings of BWTime:
+     * hours, then minutes and seconds with two digits each. */
+    private void appendClock(Duration time) throws IOException {
+        long seconds = time.getSeconds();
+        long hours = seconds/3600;
+        seconds -= hours*3600;
+        long minutes = seconds/60;
+        seconds -= minutes*60;
+        out.append(" {[%clk ");
+        appendInt(hours);
+        out.append(':');
+        appendTwoDigits(minutes);
+        out.append('.');
+        appendTwoDigits(seconds);
+        out.append("]}");
+    }
+
+    private void appendTwoDigits(long n) throws IOException {
+        if(n >= 0 && n < 10)
+            out.append('0');
+        appendInt(n);
+    }
+
+    private void appendInt(long n) throws IOException {
+        if(n < 0) {
+            out.append('-');
+            n = -n;
+        }
+        int i = digits.length;
+        do {
+            digits[--i] = (char) ('0' + n % 10);
+            n /= 10;
+        } while(n != 0);
+        for(; i < digits.length; i++)
+            out.append(digits[i]);
+    }
+}
@@ -0,0 +1,462 @@
+package org.riisholt.dgtdriver.simulator;
+
+import org.riisholt.dgtdriver.BWTime;
+import org.riisholt.dgtdriver.DgtDriver;
+import org.riisholt.dgtdriver.DgtMessageEncoder;
+import org.riisholt.dgtdriver.EEMoves;
+import org.riisholt.dgtdriver.game.Board;
+import org.riisholt.dgtdriver.game.Move;
+import org.riisholt.dgtdriver.game.MoveList;
+import org.riisholt.dgtdriver.game.Result;
+import org.riisholt.dgtdriver.game.Role;
+import org.riisholt.dgtdriver.game.Square;
+import org.riisholt.dgtdriver.moveparser.Game;
+import org.riisholt.dgtdriver.moveparser.PlayedMove;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.riisholt.dgtdriver.DgtConstants.*;
+
+/**
+ * <p>A simulated DGT board, for testing without the physical board. The
+ * simulator is the other end of the serial connection from a {@link
+ * DgtDriver}: it's sent the bytes the driver writes with {@link
+ * #gotBytes(byte[])}, answers the driver's commands, and sends the bytes a
+ * board would to the write callback given to the constructor. A simulated
+ * board is connected to a driver like this:</p>
+ *
+ * <pre>
+ * DgtDriver[] driver = new DgtDriver[1];
+ * BoardSimulator simulator = new BoardSimulator(bytes -&gt; driver[0].gotBytes(bytes));
+ * driver[0] = new DgtDriver(parser::gotMessage, simulator::gotBytes);
+ * driver[0].reset();
+ * driver[0].board();
+ * driver[0].updateNice();
+ * simulator.play(game);
+ * </pre>
+ *
+ * <p>Games are played on the board piece by piece, the way a person would
+ * move them: a move lifts the moving piece (and any captured piece, in
+ * either order) before placing it, castling moves the king and then the
+ * rook, and a promoting pawn is sometimes put down on the last rank before
+ * it's swapped for the new piece. The board's sensors can be made to
+ * flicker, reporting a square briefly empty or occupied again. Like a real
+ * board, the simulator only sends field updates and clock times in the
+ * update modes; the position can always be asked for with a board dump.</p>
+ *
+ * <p>Everything happens synchronously, in the calling thread, so the rate
+ * at which moves are made is up to the caller.</p>
+ */
+public class BoardSimulator {
+    private enum Mode { IDLE, UPDATE, UPDATE_BOARD, UPDATE_NICE }
+
+
+    private final DgtDriver.WriteCallback output;
+    // The physical board, in DGT square order: a8, b8, ..., h1.
+    private final byte[] squares = new byte[64];
+    // The position, in game coordinates.
+    private Board position = Board.emptyBoard();
+    private Mode mode = Mode.IDLE;
+    private boolean rotated;
+    // The clock state, in board coordinates. All zeros is no clock.
+    private BWTime clock = new BWTime(Duration.ZERO, (byte) 0, Duration.ZERO, (byte) 0, (byte) 0);
+
+    private final MoveList legal = new MoveList();
+    private Random random = new Random(0);
+    private double flicker;
+
+    // Command bytes received but not yet handled.
+    private byte[] input = new byte[16];
+    private int inputLength;
+
+    /**
+     * Makes a board with no pieces on it, in idle mode.
+     *
+     * @param output Called with the bytes the board sends
+     */
+    public BoardSimulator(DgtDriver.WriteCallback output) {
+        this.output = output;
+    }
+
+    /**
+     * Sets the random number generator used for the order pieces are moved
+     * in and for sensor flicker.
+     *
+     * @param random The generator
+     */
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Sets how often the sensors flicker. Each time a piece is lifted or
+     * placed, the square may briefly report its previous state before
+     * settling on the new one.
+     *
+     * @param probability The chance of a flicker per lifted or placed
+     *                    piece, from 0 (the default) to 1
+     */
+    public void setFlicker(double probability) {
+        if(probability < 0 || probability > 1)
+            throw new IllegalArgumentException("Flicker probability must be between 0 and 1, not " + probability + ".");
+        this.flicker = probability;
+    }
+
+    /**
+     * Sets whether the game is played the wrong way round on the board, with
+     * white on the board's seventh and eighth ranks. Square codes and clock
+     * sides are then reported rotated, as by a real board.
+     *
+     * @param rotated Whether the game is rotated
+     */
+    public void setRotated(boolean rotated) {
+        this.rotated = rotated;
+    }
+
+    /**
+     * The position on the board.
+     *
+     * @return A copy of the position, in game coordinates
+     */
+    public Board position() {
+        return new Board(position);
+    }
+
+    /**
+     * Handles bytes sent to the board by the driver. Complete commands are
+     * answered at once; a trailing partial command is kept until the rest of
+     * it arrives.
+     *
+     * @param bytes The bytes received
+     */
+    public void gotBytes(byte[] bytes) {
+        if(inputLength + bytes.length > input.length)
+            input = Arrays.copyOf(input, inputLength + bytes.length);
+        System.arraycopy(bytes, 0, input, inputLength, bytes.length);
+        inputLength += bytes.length;
+
+        int start = 0;
+        while(start < inputLength) {
+            int length = 1;
+            if(input[start] == DGT_CLOCK_MESSAGE) {
+                // The length byte counts the bytes after itself, less one.
+                if(start + 1 >= inputLength)
+                    break;
+                length = input[start + 1] + 2;
+                if(start + length > inputLength)
+                    break;
+                clockCommand(start, length);
+            }
+            else {
+                command(input[start]);
+            }
+            start += length;
+        }
+        System.arraycopy(input, start, input, 0, inputLength - start);
+        inputLength -= start;
+    }
+
+    private void command(byte command) {
+        switch(command) {
+            case DGT_SEND_RESET:
+                mode = Mode.IDLE;
+                break;
+            case DGT_SEND_CLK:
+                sendClock();
+                break;
+            case DGT_SEND_BRD:
+                send(DGT_BOARD_DUMP, squares.clone());
+                break;
+            case DGT_SEND_UPDATE:
+                mode = Mode.UPDATE;
+                break;
+            case DGT_SEND_UPDATE_BRD:
+                mode = Mode.UPDATE_BOARD;
+                break;
+            case DGT_SEND_UPDATE_NICE:
+                mode = Mode.UPDATE_NICE;
+                break;
+            case DGT_RETURN_SERIALNR:
+                send(DGT_SERIALNR, "00000".getBytes(StandardCharsets.US_ASCII));
+                break;
+            case DGT_RETURN_LONG_SERIALNR:
+                send(DGT_LONG_SERIALNR, "0000000000".getBytes(StandardCharsets.US_ASCII));
+                break;
+            case DGT_RETURN_BUSADRES:
+                send(DGT_BUSADRES, new byte[]{0, 0});
+                break;
+            case DGT_SEND_TRADEMARK:
+                send(DGT_TRADEMARK, "Digital Game Technology\nSimulated board".getBytes(StandardCharsets.US_ASCII));
+                break;
+            case DGT_SEND_EE_MOVES:
+                // Nothing has been recorded.
+                send(DGT_EE_MOVES, new byte[]{EEMoves.EE_EOF});
+                break;
+            case DGT_SEND_VERSION:
+                send(DGT_VERSION, new byte[]{1, 0});
+                break;
+            default:
+                // Bus mode, the bootloader, and battery status, which the
+                // driver can't read, aren't simulated.
+                break;
+        }
+    }
+
+    private void clockCommand(int start, int length) {
+        // Message id 0x2b, length, start of message, command, data, end.
+        byte id = input[start + 3];
+        if(id == DGT_CMD_CLOCK_SETNRUN && length == 12) {
+            int data = start + 4;
+            Duration left = clockTime(input[data], input[data + 1], input[data + 2]);
+            Duration right = clockTime(input[data + 3], input[data + 4], input[data + 5]);
+            boolean pause = (input[data + 6] & 0x04) != 0;
+            // A clock is connected, and running unless paused.
+            clock = new BWTime(left, (byte) 0, right, (byte) 0, (byte) (0x20 | (pause? 0: 0x01)));
+        }
+
+        // The clock acknowledges commands in the update modes that send
+        // clock times, with a BWTime message in a special format.
+        if(mode == Mode.UPDATE || mode == Mode.UPDATE_NICE)
+            send(DGT_BWTIME, new byte[]{0x0a, 0x10, id, 0x0a, 0, 0, 0});
+    }
+
+    private static Duration clockTime(byte hours, byte minutes, byte seconds) {
+        return Duration.ofSeconds(3600*(hours & 0x0f) + 60*minutes + seconds);
+    }
+
+    /**
+     * Sets up a position on the board, lifting the pieces that are in the
+     * way and placing the missing ones.
+     *
+     * @param board The position to set up, in game coordinates
+     */
+    public void setUp(Board board) {
+        for(int square = 0; square < 64; square++) {
+            if(position.roleAt(square) != null &&
+                    (position.roleAt(square) != board.roleAt(square) || position.whiteAt(square) != board.whiteAt(square)))
+                lift(square);
+        }
+        for(int square = 0; square < 64; square++) {
+            if(board.roleAt(square) != null && squares[dgtSquare(square)] == EMPTY)
+                place(square, board.whiteAt(square), board.roleAt(square));
+        }
+        position = new Board(board);
+    }
+
+    /**
+     * Plays a game on the board from the initial position. The pieces are
+     * set up, the moves played with their clock times, and the result, if
+     * any, signalled with the kings.
+     *
+     * @param game The game to play
+     * @throws IllegalArgumentException if a move isn't legal
+     */
+    public void play(Game game) {
+        play(new Board(), game);
+    }
+
+    /**
+     * Plays a game on the board from the given position.
+     *
+     * @param start The position before the first move
+     * @param game The game to play
+     * @throws IllegalArgumentException if a move isn't legal
+     */
+    public void play(Board start, Game game) {
+        setUp(start);
+        for(PlayedMove m: game.moves)
+            play(m);
+        if(game.result != null)
+            signalResult(game.result);
+    }
+
+    /**
+     * Plays a move, and then sends its clock time, if any.
+     *
+     * @param move The move to play
+     * @throws IllegalArgumentException if the move isn't legal
+     */
+    public void play(PlayedMove move) {
+        play(move.move);
+        if(move.clockInfo != null)
+            clock(move.clockInfo);
+    }
+
+    /**
+     * Plays a move on the board.
+     *
+     * @param move The move to play, in game coordinates
+     * @throws IllegalArgumentException if the move isn't legal in the
+     *                                  position on the board
+     */
+    public void play(Move move) {
+        if(!isLegal(move))
+            throw new IllegalArgumentException("Illegal move " + move.uci() + ".");
+        boolean white = position.whiteAt(move.from);
+
+        if(move.type == Move.CASTLING) {
+            int king = Square.combine(move.to < move.from? Square.C1: Square.G1, move.from);
+            int rook = Square.combine(move.to < move.from? Square.D1: Square.F1, move.from);
+            lift(move.from);
+            // In Chess960, the king may land on the rook's square.
+            if(king == move.to)
+                lift(move.to);
+            place(king, white, Role.KING);
+            if(king != move.to)
+                lift(move.to);
+            place(rook, white, Role.ROOK);
+        }
+        else {
+            int captured = -1;
+            if(move.type == Move.EN_PASSANT)
+                captured = Square.combine(move.to, move.from);
+            else if(move.capture)
+                captured = move.to;
+
+            if(captured >= 0 && random.nextBoolean()) {
+                lift(captured);
+                lift(move.from);
+            }
+            else {
+                lift(move.from);
+                if(captured >= 0)
+                    lift(captured);
+            }
+            if(move.promotion != null && random.nextBoolean()) {
+                // The pawn is put down, and then swapped for the new piece.
+                place(move.to, white, Role.PAWN);
+                lift(move.to);
+            }
+            place(move.to, white, move.promotion != null? move.promotion: move.role);
+        }
+        position.play(move);
+    }
+
+    private boolean isLegal(Move move) {
+        position.legalMoves(legal);
+        for(Move m: legal) {
+            if(m.type == move.type && m.from == move.from && m.to == move.to && m.promotion == move.promotion)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Signals a result by putting the kings in the centre of the board: on
+     * e4 and d5 for a white win, d4 and e5 for a black win, and e4 and e5
+     * for a draw. Pieces on those squares are removed from the board first.
+     * Afterwards, the position is no longer a chess position, and the next
+     * game is started with {@link #setUp(Board)} or {@link #play(Game)}.
+     *
+     * @param result The result to signal
+     * @see Board#resultSignal()
+     */
+    public void signalResult(Result result) {
+        int whiteTarget = result == Result.BLACK_WIN? square("d4"): square("e4");
+        int blackTarget = result == Result.WHITE_WIN? square("d5"): square("e5");
+        int whiteKing = king(true);
+        int blackKing = king(false);
+
+        /* Both kings are lifted before either is put down, so the result is
+         * only signalled once both are in place, and not by the first king
+         * joining the other in the centre. */
+        for(int target: new int[]{whiteTarget, blackTarget}) {
+            if(position.roleAt(target) != null && target != whiteKing && target != blackKing)
+                remove(target);
+        }
+        if(whiteKing != whiteTarget && whiteKing >= 0)
+            remove(whiteKing);
+        if(blackKing != blackTarget && blackKing >= 0)
+            remove(blackKing);
+        if(whiteKing != whiteTarget) {
+            place(whiteTarget, true, Role.KING);
+            position.put(whiteTarget, true, Role.KING);
+        }
+        if(blackKing != blackTarget) {
+            place(blackTarget, false, Role.KING);
+            position.put(blackTarget, false, Role.KING);
+        }
+    }
+
+    private int king(boolean white) {
+        for(int square = 0; square < 64; square++) {
+            if(position.roleAt(square) == Role.KING && position.whiteAt(square) == white)
+                return square;
+        }
+        return -1;
+    }
+
+    private void remove(int square) {
+        lift(square);
+        position.discard(square);
+    }
+
+    private static int square(String name) {
+        return Square.square(name.charAt(0) - 'a', name.charAt(1) - '1');
+    }
+
+    /**
+     * Sets the clock, and sends the new clock state in the update modes.
+     *
+     * @param time The clock state, in game coordinates: the white player on
+     *             the left, as in {@link PlayedMove#clockInfo}
+     */
+    public void clock(BWTime time) {
+        BWTime previous = clock;
+        clock = rotated? time.rotate(): time;
+        // Nice updates are only sent when the clock changes.
+        if(mode == Mode.UPDATE || (mode == Mode.UPDATE_NICE && !sameTime(previous, clock)))
+            sendClock();
+    }
+
+    private static boolean sameTime(BWTime a, BWTime b) {
+        return a.left.equals(b.left) && a.right.equals(b.right) && a.leftFlags == b.leftFlags &&
+                a.rightFlags == b.rightFlags && a.clockStatusFlags == b.clockStatusFlags;
+    }
+
+    private void sendClock() {
+        output.write(DgtMessageEncoder.encode(clock));
+    }
+
+    private void lift(int square) {
+        int dgtSquare = dgtSquare(square);
+        byte piece = squares[dgtSquare];
+        squares[dgtSquare] = EMPTY;
+        if(flicker > 0 && random.nextDouble() < flicker) {
+            fieldUpdate(dgtSquare, EMPTY);
+            fieldUpdate(dgtSquare, piece);
+        }
+        fieldUpdate(dgtSquare, EMPTY);
+    }
+
+    private void place(int square, boolean white, Role role) {
+        int dgtSquare = dgtSquare(square);
+        byte piece = pieceToDgtCode(white, role);
+        squares[dgtSquare] = piece;
+        if(flicker > 0 && random.nextDouble() < flicker) {
+            fieldUpdate(dgtSquare, piece);
+            fieldUpdate(dgtSquare, EMPTY);
+        }
+        fieldUpdate(dgtSquare, piece);
+    }
+
+    private int dgtSquare(int square) {
+        // The board numbers squares in its own orientation.
+        return squareToDgtCode(rotated? square ^ 63: square);
+    }
+
+    private void fieldUpdate(int dgtSquare, byte piece) {
+        if(mode != Mode.IDLE)
+            send(DGT_FIELD_UPDATE, new byte[]{(byte) dgtSquare, piece});
+    }
+
+    private void send(byte id, byte[] data) {
+        byte[] bytes = new byte[data.length + 3];
+        DgtMessageEncoder.frame(id, data, ByteBuffer.wrap(bytes));
+        output.write(bytes);
+    }
+}
@@ -0,0 +1,193 @@
+package org.riisholt.dgtdriver;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import org.junit.jupiter.api.Test;
+import org.riisholt.dgtdriver.game.Board;
+import org.riisholt.dgtdriver.game.MoveList;
+import org.riisholt.dgtdriver.game.PackedPosition;
+import org.riisholt.dgtdriver.game.Perft;
+import org.riisholt.dgtdriver.moveparser.MoveParser;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the hot paths stay within a budget of heap allocation per
+ * operation, as measured by the per-thread allocation counter of the JVM.
+ * Each workload is run a few times first so that the numbers reflect the
+ * steady state rather than class loading and JIT compilation. If the JVM
+ * doesn't provide the counter the tests are skipped.
+ */
+class AllocationTest {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASUREMENT_ROUNDS = 3;
+
+    // A FieldUpdate costs its own object plus a copy of its two data bytes.
+    private static final long DRIVER_BYTES_PER_FIELD_UPDATE = 64;
+    private static final long LEGAL_MOVES_BYTES_PER_CALL = 0;
+    // Only recognized moves allocate (the new position and its board); the
+    // captures currently need 41 to 68 bytes per message on average.
+    private static final long PARSER_BYTES_PER_MESSAGE = 128;
+    private static final long PARSER_BYTES_PER_UNKNOWN_POSITION = 0;
+    private static final long PACKED_POSITION_BYTES_PER_CALL = 0;
+
+    @Test
+    void testDriverFieldUpdates() {
+        int count = 1000;
+        List<byte[]> chunks = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            chunks.add(new byte[]{
+                    (byte) (0x80 | DgtConstants.DGT_FIELD_UPDATE), 0, 5,
+                    (byte) (i % 64), (byte) (i % (DgtConstants.BKING + 1))});
+        }
+
+        int[] messages = {0};
+        DgtDriver driver = new DgtDriver(msg -> messages[0]++, null);
+        long bytes = allocatedBytes(() -> {
+            for(byte[] chunk: chunks)
+                driver.gotBytes(chunk);
+        });
+
+        assertTrue(messages[0] == count * (WARMUP_ROUNDS + MEASUREMENT_ROUNDS), "Expected a message per field update");
+        assertBudget("DgtDriver.gotBytes per field update", bytes, count, DRIVER_BYTES_PER_FIELD_UPDATE);
+    }
+
+    @Test
+    void testLegalMovesReusedList() {
+        List<Perft.Position> positions = Perft.standardPositions();
+        Board[] boards = new Board[positions.size()];
+        for(int i = 0; i < boards.length; i++)
+            boards[i] = positions.get(i).board();
+
+        for(boolean scoring: new boolean[]{false, true}) {
+            MoveList moves = new MoveList(256, scoring);
+            long bytes = allocatedBytes(() -> {
+                // Indexed loops, so the iterators don't count against the budget.
+                for(int i = 0; i < 100; i++) {
+                    for(int j = 0; j < boards.length; j++)
+                        boards[j].legalMoves(moves);
+                }
+            });
+            assertBudget("Board.legalMoves per call (scoring " + scoring + ")",
+                    bytes, 100 * boards.length, LEGAL_MOVES_BYTES_PER_CALL);
+        }
+    }
+
+    @Test
+    void testPackedPositionCodec() {
+        List<Perft.Position> positions = Perft.standardPositions();
+        Board[] boards = new Board[positions.size()];
+        for(int i = 0; i < boards.length; i++)
+            boards[i] = positions.get(i).board();
+
+        long[] packed = new long[PackedPosition.LONGS * boards.length];
+        Board decoded = Board.emptyBoard();
+        long bytes = allocatedBytes(() -> {
+            for(int i = 0; i < 100; i++) {
+                for(int j = 0; j < boards.length; j++) {
+                    PackedPosition.encode(boards[j], packed, j * PackedPosition.LONGS);
+                    PackedPosition.decode(packed, j * PackedPosition.LONGS, decoded);
+                }
+            }
+        });
+        assertBudget("PackedPosition.encode and decode per call", bytes, 100 * boards.length,
+                PACKED_POSITION_BYTES_PER_CALL);
+    }
+
+    @Test
+    void testMoveParserMessages() throws java.io.IOException {
+        for(String capture: new String[]{"/1.inbytes", "/2.inbytes", "/johan.inbytes"}) {
+            List<DgtMessage> messages = new ArrayList<>();
+            DgtDriver driver = new DgtDriver(messages::add, null);
+            for(byte[] b: TestUtils.readBytes(capture))
+                driver.gotBytes(b);
+
+            long bytes = allocatedBytes(() -> {
+                MoveParser parser = new MoveParser(game -> {});
+                for(DgtMessage msg: messages)
+                    parser.gotMessage(msg);
+            });
+            assertBudget("MoveParser.gotMessage per message on " + capture,
+                    bytes, messages.size(), PARSER_BYTES_PER_MESSAGE);
+        }
+    }
+
+    @Test
+    void testMoveParserUnknownPositions() throws DgtProtocolException {
+        // From the initial position, lift the e2 pawn and then put a queen
+        // on e4 and take it away again, over and over. None of these
+        // positions are reachable, so the parser only tracks the pieces.
+        byte[] initial = {
+                DgtConstants.BROOK, DgtConstants.BKNIGHT, DgtConstants.BBISHOP, DgtConstants.BQUEEN,
+                DgtConstants.BKING, DgtConstants.BBISHOP, DgtConstants.BKNIGHT, DgtConstants.BROOK,
+                0, 0, 0, 0, 0, 0, 0, 0,
+                0, 0, 0, 0, 0, 0, 0, 0,
+                0, 0, 0, 0, 0, 0, 0, 0,
+                0, 0, 0, 0, 0, 0, 0, 0,
+                0, 0, 0, 0, 0, 0, 0, 0,
+                0, 0, 0, 0, 0, 0, 0, 0,
+                DgtConstants.WROOK, DgtConstants.WKNIGHT, DgtConstants.WBISHOP, DgtConstants.WQUEEN,
+                DgtConstants.WKING, DgtConstants.WBISHOP, DgtConstants.WKNIGHT, DgtConstants.WROOK};
+        for(int i = 8; i < 16; i++) {
+            initial[i] = DgtConstants.BPAWN;
+            initial[i + 40] = DgtConstants.WPAWN;
+        }
+        // DGT square codes run from a8 to h1.
+        byte e2 = 52, e4 = 36;
+
+        MoveParser parser = new MoveParser(game -> {});
+        parser.gotMessage(new BoardDump(initial));
+        parser.gotMessage(new FieldUpdate(new byte[]{e2, DgtConstants.EMPTY}));
+        DgtMessage put = new FieldUpdate(new byte[]{e4, DgtConstants.WQUEEN});
+        DgtMessage lift = new FieldUpdate(new byte[]{e4, DgtConstants.EMPTY});
+
+        int count = 1000;
+        long bytes = allocatedBytes(() -> {
+            for(int i = 0; i < count; i++) {
+                parser.gotMessage(put);
+                parser.gotMessage(lift);
+            }
+        });
+        assertBudget("MoveParser.gotMessage per unknown position", bytes, 2 * count,
+                PARSER_BYTES_PER_UNKNOWN_POSITION);
+    }
+
+    private static void assertBudget(String what, long bytes, int operations, long budget) {
+        double perOperation = (double) bytes / operations;
+        assertTrue(perOperation <= budget,
+                String.format("%s allocated %.1f bytes, budget is %d", what, perOperation, budget));
+    }
+
+    /* Runs the workload WARMUP_ROUNDS times, then returns the smallest number
+     * of bytes allocated by the current thread in MEASUREMENT_ROUNDS more
+     * runs.
+     */
+    private static long allocatedBytes(Runnable workload) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean,
+                "Per-thread allocation counters not available");
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported(),
+                "Per-thread allocation counters not supported");
+        if(!threads.isThreadAllocatedMemoryEnabled())
+            threads.setThreadAllocatedMemoryEnabled(true);
+
+        for(int i = 0; i < WARMUP_ROUNDS; i++)
+            workload.run();
+
+        // JIT activity can occasionally be charged to a round, so take the
+        // best of a few; a real regression shows up in every round.
+        long id = Thread.currentThread().getId();
+        long least = Long.MAX_VALUE;
+        for(int i = 0; i < MEASUREMENT_ROUNDS; i++) {
+            long before = threads.getThreadAllocatedBytes(id);
+            workload.run();
+            least = Math.min(least, threads.getThreadAllocatedBytes(id) - before);
+        }
+        return least;
+    }
+}
@@ -0,0 +1,184 @@
+package org.riisholt.dgtdriver;
+
+import org.junit.jupiter.api.Test;
+import org.riisholt.dgtdriver.game.Board;
+import org.riisholt.dgtdriver.game.Role;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DgtMessageEncoderTest {
+    @Test
+    void testCaptures() throws java.io.IOException {
+        // The frames of the captured sessions encode back to the same bytes,
+        // except the empty BWTime frames the driver skips.
+        for(String filename: new String[]{"/1.inbytes", "/2.inbytes", "/johan.inbytes"}) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            for(byte[] chunk: TestUtils.readBytes(filename))
+                stream.write(chunk);
+            byte[] bytes = stream.toByteArray();
+
+            List<DgtMessage> messages = decode(bytes);
+            ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+            for(DgtMessage msg: messages)
+                DgtMessageEncoder.encode(msg, buffer);
+            assertArrayEquals(withoutEmptyClocks(bytes), Arrays.copyOf(buffer.array(), buffer.position()));
+        }
+    }
+
+    @Test
+    void testFieldUpdate() throws DgtProtocolException {
+        // A black knight on e4, which the board calls square 36.
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+        DgtMessageEncoder.fieldUpdate(28, false, Role.KNIGHT, buffer);
+        assertArrayEquals(new byte[]{(byte) 0x8e, 0, 5, 36, DgtConstants.BKNIGHT}, buffer.array());
+
+        FieldUpdate update = (FieldUpdate) decodeOne(buffer.array());
+        assertEquals(28, update.square);
+        assertFalse(update.color);
+        assertEquals(Role.KNIGHT, update.role);
+
+        update = (FieldUpdate) roundTrip(new FieldUpdate(new byte[]{63, DgtConstants.EMPTY}));
+        assertEquals(7, update.square);
+        assertNull(update.role);
+    }
+
+    @Test
+    void testBoardDump() {
+        Board board = Board.fromFen("r1bqkb1r/pppp1ppp/2n2n2/4p2Q/2B1P3/8/PPPP1PPP/RNB1K1NR w KQkq - 4 4");
+        ByteBuffer buffer = ByteBuffer.allocate(67);
+        DgtMessageEncoder.boardDump(board, buffer);
+        assertEquals(DgtConstants.BROOK, buffer.get(3));
+        assertEquals(DgtConstants.WROOK, buffer.get(66));
+        assertTrue(((BoardDump) decodeOne(buffer.array())).board.equalSetup(board));
+    }
+
+    @Test
+    void testBWTime() {
+        BWTime time = new BWTime(Duration.ofSeconds(3600 + 23*60 + 45), (byte) 0x04,
+                Duration.ofSeconds(12*3600 + 59), (byte) 0x01, (byte) 0x29);
+        byte[] bytes = DgtMessageEncoder.encode(time);
+        assertArrayEquals(new byte[]{(byte) 0x8d, 0, 10, 0x1c, 0x00, 0x59, 0x41, 0x23, 0x45, 0x29}, bytes);
+
+        BWTime decoded = (BWTime) decodeOne(bytes);
+        assertEquals(time.left, decoded.left);
+        assertEquals(time.right, decoded.right);
+        assertEquals(time.leftFlags, decoded.leftFlags);
+        assertEquals(time.rightFlags, decoded.rightFlags);
+        assertEquals(time.clockStatusFlags, decoded.clockStatusFlags);
+
+        assertThrows(IllegalArgumentException.class, () -> DgtMessageEncoder.encode(
+                new BWTime(Duration.ofHours(16), (byte) 0, Duration.ZERO, (byte) 0, (byte) 0)));
+        assertThrows(IllegalArgumentException.class, () -> DgtMessageEncoder.encode(
+                new BWTime(Duration.ZERO, (byte) 0x10, Duration.ZERO, (byte) 0, (byte) 0)));
+    }
+
+    @Test
+    void testClockAck() throws DgtProtocolException {
+        // All the ack bits, high ones included, survive a round trip.
+        byte[][] acks = {
+                {0x0a, 0x10, 0x0a, 0x0a, 0, 0, 0},
+                {0x3a, 0x7f, 0x01, 0x1a, 0x12, 0x35, 0},
+                {0x0a, 0x00, 0x01, 0x2a, 0x7f, 0x00, 0},
+        };
+        for(byte[] data: acks) {
+            ClockAck ack = new ClockAck(data);
+            ClockAck decoded = (ClockAck) roundTrip(ack);
+            assertEquals(ack.ack0, decoded.ack0);
+            assertEquals(ack.ack1, decoded.ack1);
+            assertEquals(ack.ack2, decoded.ack2);
+            assertEquals(ack.ack3, decoded.ack3);
+        }
+        assertTrue(((ClockAck) roundTrip(new ClockAck(acks[0]))).isSetNRunAck());
+    }
+
+    @Test
+    void testEEMoves() throws DgtProtocolException {
+        byte[] data = {
+                EEMoves.EE_NOP, EEMoves.EE_POWERUP, EEMoves.EE_BEGINPOS_ROT, EEMoves.EE_START_TAG,
+                0x40 | DgtConstants.BQUEEN, 3,
+                0x40, 60,
+                0x61, 30, 5,
+                0x79, 59, 59,
+                EEMoves.EE_EOF,
+        };
+        EEMoves moves = new EEMoves(data);
+        assertEquals(9, moves.events.size());
+        assertArrayEquals(data, Arrays.copyOfRange(DgtMessageEncoder.encode(moves), 3, data.length + 3));
+
+        EEMoves decoded = (EEMoves) roundTrip(moves);
+        EEMoves.FieldEvent field = (EEMoves.FieldEvent) decoded.events.get(4);
+        assertEquals(59, field.square);
+        assertFalse(field.color);
+        assertEquals(Role.QUEEN, field.role);
+        EEMoves.ClockEvent clock = (EEMoves.ClockEvent) decoded.events.get(7);
+        assertTrue(clock.isLeft);
+        assertEquals(Duration.ofSeconds(9*3600 + 59*60 + 59), clock.time);
+    }
+
+    @Test
+    void testSimpleMessages() {
+        assertEquals("01234", ((SerialnrMessage) roundTrip(new SerialnrMessage("01234".getBytes()))).value);
+        assertEquals("0123456789", ((LongSerialnrMessage) roundTrip(new LongSerialnrMessage("0123456789".getBytes()))).value);
+        assertEquals("Digital Game Technology", ((TrademarkMessage) roundTrip(new TrademarkMessage("Digital Game Technology".getBytes()))).value);
+        assertThrows(IllegalArgumentException.class, () -> DgtMessageEncoder.encode(new StringMessage(new byte[0])));
+        assertThrows(IllegalArgumentException.class, () -> DgtMessageEncoder.encode(new DgtMessage() {}));
+    }
+
+    @Test
+    void testBuffer() {
+        // Frames are written one after another, and nothing is written if a
+        // frame doesn't fit.
+        FieldUpdate update = (FieldUpdate) decodeOne(new byte[]{(byte) 0x8e, 0, 5, 0, DgtConstants.WKING});
+        ByteBuffer buffer = ByteBuffer.allocate(12);
+        assertEquals(5, DgtMessageEncoder.encode(update, buffer));
+        assertEquals(5, DgtMessageEncoder.encode(update, buffer));
+        assertThrows(BufferOverflowException.class, () -> DgtMessageEncoder.encode(update, buffer));
+        assertEquals(10, buffer.position());
+        assertEquals(2, decode(Arrays.copyOf(buffer.array(), 10)).size());
+        buffer.clear();
+        assertThrows(BufferOverflowException.class, () -> DgtMessageEncoder.boardDump(new Board(), buffer));
+        assertEquals(0, buffer.position());
+    }
+
+    private static DgtMessage roundTrip(DgtMessage msg) {
+        byte[] bytes = DgtMessageEncoder.encode(msg);
+        DgtMessage decoded = decodeOne(bytes);
+        assertEquals(msg.getClass(), decoded.getClass());
+        assertArrayEquals(bytes, DgtMessageEncoder.encode(decoded));
+        return decoded;
+    }
+
+    private static DgtMessage decodeOne(byte[] bytes) {
+        List<DgtMessage> messages = decode(bytes);
+        assertEquals(1, messages.size());
+        return messages.get(0);
+    }
+
+    private static List<DgtMessage> decode(byte[] bytes) {
+        List<DgtMessage> messages = new ArrayList<>();
+        new DgtDriver(messages::add, null).gotBytes(bytes);
+        return messages;
+    }
+
+    private static byte[] withoutEmptyClocks(byte[] bytes) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for(int i = 0; i < bytes.length;) {
+            int length = bytes[i + 1] << 7 | bytes[i + 2];
+            boolean empty = (bytes[i] & 0x7f) == DgtConstants.DGT_BWTIME;
+            for(int j = i + 3; j < i + length; j++)
+                empty &= bytes[j] == 0;
+            if(!empty)
+                stream.write(bytes, i, length);
+            i += length;
+        }
+        return stream.toByteArray();
+    }
+}
@@ -1,11 +1,20 @@
 package org.riisholt.dgtdriver;
 
+import org.riisholt.dgtdriver.game.Board;
+import org.riisholt.dgtdriver.game.Move;
+import org.riisholt.dgtdriver.game.MoveList;
+import org.riisholt.dgtdriver.game.Result;
+import org.riisholt.dgtdriver.moveparser.Game;
+import org.riisholt.dgtdriver.moveparser.MoveParser;
+import org.riisholt.dgtdriver.moveparser.PlayedMove;
+
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
+import java.util.Random;
 
 public class TestUtils {
     public static String readResourceFile(String filename) throws java.io.IOException {
@@ -41,6 +50,35 @@ public class TestUtils {
         return a;
     }
 
+    public static Game parseCapture(String filename) throws java.io.IOException {
+        List<Game> games = new ArrayList<>();
+        MoveParser parser = new MoveParser(games::add);
+        DgtDriver driver = new DgtDriver(parser::gotMessage, null);
+        for(byte[] b: readBytes(filename))
+            driver.gotBytes(b);
+        parser.endGame();
+        return games.get(0);
+    }
+
+    /* Plays random legal moves from the start position, which is left as it
+     * is, for up to 200 plies or until the game is over. */
+    public static Game randomGame(Random random, Board start, Result result) {
+        List<PlayedMove> played = new ArrayList<>();
+        MoveList moves = new MoveList();
+        Board board = start;
+        for(int ply = 0; ply < 200; ply++) {
+            board.legalMoves(moves);
+            if(moves.isEmpty())
+                break;
+            Move move = moves.get(random.nextInt(moves.size()));
+            Board before = board;
+            board = new Board(before);
+            board.play(move);
+            played.add(PlayedMove.sharing(before, null, board, move));
+        }
+        return new Game(played, result);
+    }
+
     static boolean streamAtEnd(InputStream s) throws java.io.IOException {
         if(!s.markSupported())
             throw new RuntimeException("mark() not supported");
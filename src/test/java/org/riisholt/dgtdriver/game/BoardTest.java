@@ -0,0 +1,269 @@
+package org.riisholt.dgtdriver.game;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoardTest {
+    @Test
+    void testMailboxInitialPositions() {
+        assertMailboxConsistent(new Board());
+        assertMailboxConsistent(Board.emptyBoard());
+
+        Board rotated = new Board();
+        rotated.rotate180();
+        assertMailboxConsistent(rotated);
+        assertMailboxConsistent(new Board(rotated));
+        assertEquals(Role.KING, rotated.roleAt(Square.square(3, 7)));
+
+        rotated.rotate180();
+        assertTrue(rotated.equalSetup(new Board()));
+    }
+
+    @Test
+    void testMailboxDuringPlay() {
+        Random random = new Random(1);
+        MoveList moves = new MoveList();
+        for(int game = 0; game < 50; game++) {
+            Board board = new Board();
+            for(int ply = 0; ply < 200; ply++) {
+                board.legalMoves(moves);
+                if(moves.isEmpty())
+                    break;
+                board.play(moves.get(random.nextInt(moves.size())));
+                assertMailboxConsistent(board);
+            }
+            Board copy = new Board(board);
+            copy.rotate180();
+            assertMailboxConsistent(copy);
+        }
+    }
+
+    @Test
+    void testMailboxPutDiscard() {
+        Random random = new Random(2);
+        Role[] roles = Role.values();
+        Board board = Board.emptyBoard();
+        for(int i = 0; i < 10000; i++) {
+            int square = random.nextInt(64);
+            if(random.nextInt(3) == 0)
+                board.discard(square);
+            else
+                board.put(square, random.nextBoolean(), roles[random.nextInt(roles.length)]);
+            assertMailboxConsistent(board);
+        }
+    }
+
+    @Test
+    void testPieceHash() {
+        Random random = new Random(3);
+        MoveList moves = new MoveList();
+        Board board = new Board();
+        Board reused = Board.emptyBoard();
+        for(int ply = 0; ply < 200; ply++) {
+            board.legalMoves(moves);
+            if(moves.isEmpty())
+                break;
+            board.play(moves.get(random.nextInt(moves.size())));
+            assertHashConsistent(board);
+            assertHashConsistent(new Board(board));
+
+            reused.copyFrom(board);
+            assertHashConsistent(reused);
+            assertTrue(reused.equalSetup(board));
+            reused.rotate180();
+            assertHashConsistent(reused);
+        }
+
+        // Field updates on a tracking board keep the hash up to date, and
+        // the piece hash doesn't depend on whose turn it is.
+        Role[] roles = Role.values();
+        for(int i = 0; i < 1000; i++) {
+            int square = random.nextInt(64);
+            if(random.nextInt(3) == 0)
+                board.discard(square);
+            else
+                board.put(square, random.nextBoolean(), roles[random.nextInt(roles.length)]);
+            assertHashConsistent(board);
+        }
+        Board other = new Board(board);
+        other.turn = !board.turn;
+        other.incrementalHash ^= ZobristHash.POLYGLOT[780];
+        assertEquals(board.pieceHash(), other.pieceHash());
+    }
+
+    @Test
+    void testIsLegal() {
+        // isLegal() must accept exactly the moves legalMoves() generates,
+        // out of every move that can be formed on the board.
+        List<Board> boards = new ArrayList<>();
+        for(Perft.Position p: Perft.standardPositions())
+            boards.add(p.board());
+        Random random = new Random(5);
+        MoveList moves = new MoveList();
+        for(int game = 0; game < 20; game++) {
+            Board board = new Board();
+            for(int ply = 0; ply < 100; ply++) {
+                board.legalMoves(moves);
+                if(moves.isEmpty())
+                    break;
+                board.play(moves.get(random.nextInt(moves.size())));
+                if(ply % 10 == 0)
+                    boards.add(new Board(board));
+            }
+        }
+
+        Role[] promotions = {null, Role.PAWN, Role.KNIGHT, Role.BISHOP, Role.ROOK, Role.QUEEN, Role.KING};
+        Move candidate = new Move();
+        for(Board board: boards) {
+            board.legalMoves(moves);
+            Set<String> legal = new HashSet<>();
+            for(Move m: moves)
+                legal.add(moveKey(m));
+
+            int accepted = 0;
+            long pieces = board.us();
+            while(pieces != 0) {
+                int from = Bitboard.lsb(pieces);
+                pieces &= pieces - 1L;
+                for(int to = 0; to < 64; to++) {
+                    for(int type: new int[]{Move.NORMAL, Move.EN_PASSANT, Move.CASTLING}) {
+                        for(Role promotion: promotions) {
+                            for(boolean capture: new boolean[]{false, true}) {
+                                candidate.type = type;
+                                candidate.role = board.roleAt(from);
+                                candidate.from = from;
+                                candidate.to = to;
+                                candidate.capture = capture;
+                                candidate.promotion = promotion;
+                                boolean isLegal = board.isLegal(candidate);
+                                assertEquals(legal.contains(moveKey(candidate)), isLegal, moveKey(candidate));
+                                if(isLegal)
+                                    accepted++;
+                            }
+                        }
+                    }
+                }
+            }
+            assertEquals(legal.size(), accepted);
+        }
+    }
+
+    @Test
+    void testDiff() {
+        Board board = new Board();
+        assertEquals(0, board.diff(new Board()));
+
+        Board after = new Board(board);
+        after.play(uciMove(after, "e2e4"));
+        assertEquals((1L << Square.square(4, 1)) | (1L << Square.square(4, 3)), board.diff(after));
+
+        // A capture changes the piece, but not the occupancy, of a square.
+        Board capture = Board.fromFen("4k3/8/8/3p4/4P3/8/8/4K3 w - - 0 1");
+        Board captured = new Board(capture);
+        captured.play(uciMove(captured, "e4d5"));
+        assertEquals((1L << Square.square(4, 3)) | (1L << Square.square(3, 4)), capture.diff(captured));
+        assertEquals(Long.bitCount(capture.occupied() ^ captured.occupied()), 1);
+    }
+
+    @Test
+    void testHasAnyLegalMove() {
+        MoveList moves = new MoveList();
+        for(Board board: testBoards(6)) {
+            board.legalMoves(moves);
+            assertEquals(!moves.isEmpty(), board.hasAnyLegalMove(), board.debugBoard());
+        }
+
+        // Checkmate, stalemate, and a double check the king can step out of.
+        assertFalse(Board.fromFen("rnb1kbnr/pppp1ppp/8/4p3/6Pq/5P2/PPPPP2P/RNBQKBNR w KQkq - 1 3").hasAnyLegalMove());
+        assertFalse(Board.fromFen("7k/5Q2/6K1/8/8/8/8/8 b - - 0 1").hasAnyLegalMove());
+        assertTrue(Board.fromFen("4k3/8/8/8/1b6/8/4r3/R3K3 w Q - 0 1").hasAnyLegalMove());
+    }
+
+    @Test
+    void testLegalOrigins() {
+        MoveList moves = new MoveList();
+        Role[] roles = {Role.KNIGHT, Role.BISHOP, Role.ROOK, Role.QUEEN, Role.KING};
+        for(Board board: testBoards(7)) {
+            board.legalMoves(moves);
+            for(Role role: roles) {
+                for(int to = 0; to < 64; to++) {
+                    long expected = 0;
+                    for(Move m: moves) {
+                        if(m.type == Move.NORMAL && m.role == role && m.to == to)
+                            expected |= 1L << m.from;
+                    }
+                    // A single candidate is returned unchecked.
+                    long origins = board.legalOrigins(role, to);
+                    if(Long.bitCount(origins) == 1 && expected == 0)
+                        continue;
+                    assertEquals(expected, origins, role + " to " + to);
+                }
+            }
+        }
+    }
+
+    private static List<Board> testBoards(long seed) {
+        // The standard perft positions, and positions from random games.
+        List<Board> boards = new ArrayList<>();
+        for(Perft.Position p: Perft.standardPositions())
+            boards.add(p.board());
+        Random random = new Random(seed);
+        MoveList moves = new MoveList();
+        for(int game = 0; game < 20; game++) {
+            Board board = new Board();
+            for(int ply = 0; ply < 200; ply++) {
+                boards.add(new Board(board));
+                board.legalMoves(moves);
+                if(moves.isEmpty())
+                    break;
+                board.play(moves.get(random.nextInt(moves.size())));
+            }
+        }
+        return boards;
+    }
+
+    private static Move uciMove(Board board, String uci) {
+        MoveList moves = new MoveList();
+        board.legalMoves(moves);
+        for(Move m: moves) {
+            if(m.uci().equals(uci))
+                return m;
+        }
+        throw new IllegalArgumentException(uci);
+    }
+
+    private static String moveKey(Move m) {
+        return m.type + " " + m.role + " " + m.from + " " + m.to + " " + m.capture + " " + m.promotion;
+    }
+
+    private static void assertHashConsistent(Board board) {
+        assertEquals(ZobristHash.hashPieces(board) ^ ZobristHash.hashTurn(board), board.incrementalHash);
+        assertEquals(ZobristHash.hashPieces(board), board.pieceHash());
+    }
+
+    private static void assertMailboxConsistent(Board board) {
+        for(int square = 0; square < 64; square++) {
+            long mask = 1L << square;
+            Role role = null;
+            for(Role r: Role.values()) {
+                if((board.bitboards[r.index] & mask) != 0) {
+                    assertNull(role, "two pieces on " + square);
+                    role = r;
+                }
+            }
+
+            assertEquals(role, board.roleAt(square), "role at " + square);
+            assertEquals((board.occupied & mask) != 0, board.mailbox[square] != 0, "occupancy at " + square);
+            assertEquals((board.bitboards[Board.WHITE] & mask) != 0, board.whiteAt(square), "colour at " + square);
+            if(role != null)
+                assertEquals((board.bitboards[Board.BLACK] & mask) != 0, !board.whiteAt(square), "colour at " + square);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.riisholt.dgtdriver.game;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MoveListTest {
+    @Test
+    void testUnscoredSort() {
+        // Moves generated without scores can't be sorted without the board.
+        MoveList moves = new MoveList(256, false);
+        new Board().legalMoves(moves);
+        assertFalse(moves.isScoring());
+        assertThrows(IllegalStateException.class, moves::sort);
+    }
+
+    @Test
+    void testSortOrder() {
+        // Scoring on demand gives the same order as scoring during
+        // generation.
+        MoveList scored = new MoveList(256, true);
+        MoveList unscored = new MoveList(256, false);
+        for(Perft.Position position: Perft.standardPositions()) {
+            Board board = position.board();
+            board.legalMoves(scored);
+            board.legalMoves(unscored);
+            scored.sort();
+            unscored.sort(board);
+            assertEquals(ucis(scored), ucis(unscored), position.name);
+
+            // Sorting a scored list with the board doesn't change the order.
+            board.legalMoves(scored);
+            scored.sort(board);
+            assertEquals(ucis(unscored), ucis(scored), position.name);
+        }
+    }
+
+    private static List<String> ucis(MoveList moves) {
+        List<String> ucis = new ArrayList<>();
+        for(int i = 0; i < moves.size(); i++)
+            ucis.add(moves.get(i).uci());
+        return ucis;
+    }
+}
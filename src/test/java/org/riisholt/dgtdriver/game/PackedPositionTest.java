@@ -0,0 +1,94 @@
+package org.riisholt.dgtdriver.game;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackedPositionTest {
+    @Test
+    void testRoundTrip() {
+        long[] packed = new long[PackedPosition.LONGS];
+        Board decoded = Board.emptyBoard();
+        for(Board board: testBoards()) {
+            PackedPosition position = PackedPosition.of(board);
+            assertSamePosition(board, position.board());
+
+            PackedPosition.encode(board, packed, 0);
+            PackedPosition.decode(packed, 0, decoded);
+            assertSamePosition(board, decoded);
+
+            byte[] bytes = position.toBytes();
+            assertEquals(PackedPosition.BYTES, bytes.length);
+            assertEquals(position, PackedPosition.fromBytes(bytes));
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            assertEquals(position, PackedPosition.read(buffer));
+            assertEquals(PackedPosition.BYTES, buffer.position());
+        }
+    }
+
+    @Test
+    void testCanonical() {
+        // Packed positions are equal exactly when the positions are.
+        Map<PackedPosition, Board> seen = new HashMap<>();
+        for(Board board: testBoards()) {
+            Board other = seen.putIfAbsent(PackedPosition.of(board), board);
+            if(other != null)
+                assertSamePosition(other, board);
+        }
+
+        Map<String, PackedPosition> byFen = new HashMap<>();
+        for(Board board: seen.values())
+            assertNull(byFen.put(key(board), PackedPosition.of(board)));
+    }
+
+    @Test
+    void testUnpackable() {
+        // Black to move is encoded on the black king, so there has to be one.
+        assertThrows(IllegalArgumentException.class,
+                () -> PackedPosition.of(Board.fromFen("8/8/8/8/8/8/8/4K3 b - - 0 1")));
+        assertTrue(PackedPosition.of(Board.fromFen("8/8/8/8/8/8/8/4K3 w - - 0 1")).board().turn);
+
+        Board crowded = new Board();
+        crowded.put(Square.square(4, 3), true, Role.QUEEN);
+        assertThrows(IllegalArgumentException.class, () -> PackedPosition.of(crowded));
+    }
+
+    private static void assertSamePosition(Board expected, Board actual) {
+        assertTrue(expected.equalSetup(actual));
+        assertEquals(expected.turn, actual.turn);
+        assertEquals(expected.epSquare, actual.epSquare);
+        assertEquals(expected.castlingRights, actual.castlingRights);
+        assertEquals(expected.incrementalHash, actual.incrementalHash);
+        assertEquals(expected.zobristHash(), actual.zobristHash());
+    }
+
+    private static String key(Board board) {
+        return board.debugBoard() + board.turn + board.epSquare + board.castlingRights;
+    }
+
+    private static List<Board> testBoards() {
+        List<Board> boards = new ArrayList<>();
+        for(Perft.Position p: Perft.standardPositions())
+            boards.add(p.board());
+        Random random = new Random(11);
+        MoveList moves = new MoveList();
+        for(int game = 0; game < 30; game++) {
+            Board board = game % 2 == 0? new Board(): Perft.standardPositions().get(1).board();
+            for(int ply = 0; ply < 150; ply++) {
+                boards.add(new Board(board));
+                board.legalMoves(moves);
+                if(moves.isEmpty())
+                    break;
+                board.play(moves.get(random.nextInt(moves.size())));
+            }
+        }
+        return boards;
+    }
+}
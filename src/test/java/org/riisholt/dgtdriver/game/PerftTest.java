@@ -0,0 +1,80 @@
+package org.riisholt.dgtdriver.game;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PerftTest {
+    // Keeps the test suite fast; deeper counts are for benchmarking.
+    private static final long MAX_NODES = 1000000;
+
+    @Test
+    void testStandardPositions() {
+        for(Perft.Position position: Perft.standardPositions()) {
+            Board board = position.board();
+            for(int depth = 1; depth <= position.maxDepth() && position.nodes(depth) <= MAX_NODES; depth++) {
+                assertEquals(position.nodes(depth), Perft.perft(board, depth), position.name + " at depth " + depth);
+            }
+        }
+    }
+
+    @Test
+    void testDivide() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for(Perft.Position position: Perft.standardPositions()) {
+            Board board = position.board();
+            Map<String, Long> divide = Perft.divide(board, 3);
+            Map<String, Long> parallelDivide = Perft.parallelDivide(board, 3, pool);
+            assertEquals(position.nodes(1), divide.size());
+            assertEquals(divide, parallelDivide);
+
+            long total = 0;
+            for(long nodes: divide.values())
+                total += nodes;
+            assertEquals(position.nodes(3), total, position.name);
+            assertEquals(position.nodes(3), Perft.parallelPerft(board, 3, pool), position.name);
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    void testInitialPositionFen() {
+        Board board = Perft.standardPositions().get(0).board();
+        assertTrue(board.equalSetup(new Board()));
+        assertEquals(new Board().zobristHash(), board.zobristHash());
+    }
+
+    @Test
+    void testAgainstReferenceGenerator() {
+        // The pin-mask generator must produce exactly the moves a plain
+        // generate-and-filter generator does.
+        Random random = new Random(3);
+        MoveList moves = new MoveList();
+        MoveList reference = new MoveList();
+        for(int game = 0; game < 300; game++) {
+            Board board = Perft.standardPositions().get(game % Perft.standardPositions().size()).board();
+            for(int ply = 0; ply < 150; ply++) {
+                board.legalMoves(moves);
+                ReferenceMoveGenerator.legalMoves(board, reference);
+                assertEquals(uciSet(reference), uciSet(moves), board.debugBoard());
+                if(moves.isEmpty())
+                    break;
+                board.play(moves.get(random.nextInt(moves.size())));
+            }
+        }
+    }
+
+    private static Set<String> uciSet(MoveList moves) {
+        Set<String> set = new HashSet<>();
+        for(Move m: moves)
+            set.add(m.uci());
+        return set;
+    }
+}
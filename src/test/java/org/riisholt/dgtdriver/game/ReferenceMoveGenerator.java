@@ -0,0 +1,106 @@
+package org.riisholt.dgtdriver.game;
+
+/* A plain generate-and-filter move generator, for testing
+ * Board.legalMoves() against. It generates the pseudo-legal moves without
+ * regard to pins or checks, and keeps those that don't leave the king
+ * attacked once played on a copy of the board. It shares no generation code
+ * with Board, and is much slower. */
+final class ReferenceMoveGenerator {
+    private ReferenceMoveGenerator() {}
+
+    static void legalMoves(Board board, MoveList moves) {
+        moves.clear();
+        long us = board.us();
+        for(long pieces = us; pieces != 0; pieces &= pieces - 1L) {
+            int from = Bitboard.lsb(pieces);
+            Role role = board.roleAt(from);
+            long targets;
+            switch(role) {
+                case PAWN:
+                    genPawn(board, from, moves);
+                    continue;
+                case KNIGHT:
+                    targets = Bitboard.KNIGHT_ATTACKS[from];
+                    break;
+                case BISHOP:
+                    targets = Bitboard.bishopAttacks(from, board.occupied);
+                    break;
+                case ROOK:
+                    targets = Bitboard.rookAttacks(from, board.occupied);
+                    break;
+                case QUEEN:
+                    targets = Bitboard.queenAttacks(from, board.occupied);
+                    break;
+                default:
+                    targets = Bitboard.KING_ATTACKS[from];
+                    genCastling(board, from, moves);
+                    break;
+            }
+            for(targets &= ~us; targets != 0; targets &= targets - 1L) {
+                int to = Bitboard.lsb(targets);
+                moves.pushNormal(board, role, from, Bitboard.contains(board.them(), to), to);
+            }
+        }
+        moves.retain(m -> leavesKingSafe(board, m));
+    }
+
+    private static void genPawn(Board board, int from, MoveList moves) {
+        int forward = board.turn? 8: -8;
+        int to = from + forward;
+        if(!Bitboard.contains(board.occupied, to)) {
+            addPawnMoves(board, from, false, to, moves);
+            if(Square.rank(from) == (board.turn? 1: 6) && !Bitboard.contains(board.occupied, to + forward))
+                moves.pushNormal(board, Role.PAWN, from, false, to + forward);
+        }
+
+        long captures = Bitboard.pawnAttacks(board.turn, from);
+        for(long targets = captures & board.them(); targets != 0; targets &= targets - 1L)
+            addPawnMoves(board, from, true, Bitboard.lsb(targets), moves);
+        if(board.epSquare != 0 && Bitboard.contains(captures, board.epSquare))
+            moves.pushEnPassant(board, from, board.epSquare);
+    }
+
+    private static void addPawnMoves(Board board, int from, boolean capture, int to, MoveList moves) {
+        if(Square.rank(to) == (board.turn? 7: 0)) {
+            for(Role promotion: new Role[]{Role.QUEEN, Role.KNIGHT, Role.ROOK, Role.BISHOP})
+                moves.pushPromotion(board, from, capture, to, promotion);
+        }
+        else
+            moves.pushNormal(board, Role.PAWN, from, capture, to);
+    }
+
+    private static void genCastling(Board board, int king, MoveList moves) {
+        // The king may not castle out of, through or into check, and the
+        // squares between the king and the rook must be empty.
+        long rooks = board.castlingRights & Bitboard.RANKS[board.turn? 0: 7];
+        for(; rooks != 0; rooks &= rooks - 1L) {
+            int rook = Bitboard.lsb(rooks);
+            if((Bitboard.BETWEEN[king][rook] & board.occupied) != 0)
+                continue;
+            int kingTo = Square.combine(rook < king? Square.C1: Square.G1, king);
+            long path = Bitboard.BETWEEN[king][kingTo] | (1L << kingTo) | (1L << king);
+            boolean safe = true;
+            for(; path != 0; path &= path - 1L)
+                safe &= !isAttacked(board, Bitboard.lsb(path), !board.turn, board.occupied ^ (1L << king));
+            if(safe)
+                moves.pushCastle(board, king, rook);
+        }
+    }
+
+    private static boolean leavesKingSafe(Board board, Move move) {
+        Board after = new Board(board);
+        after.play(move);
+        int king = Bitboard.lsb(after.byColor(board.turn) & after.bitboards[Board.KINGS]);
+        return !isAttacked(after, king, after.turn, after.occupied);
+    }
+
+    private static boolean isAttacked(Board board, int square, boolean attacker, long occupied) {
+        long[] bitboards = board.bitboards;
+        return (board.byColor(attacker) & (
+                Bitboard.rookAttacks(square, occupied) & (bitboards[Board.ROOKS] | bitboards[Board.QUEENS]) |
+                Bitboard.bishopAttacks(square, occupied) & (bitboards[Board.BISHOPS] | bitboards[Board.QUEENS]) |
+                Bitboard.KNIGHT_ATTACKS[square] & bitboards[Board.KNIGHTS] |
+                Bitboard.KING_ATTACKS[square] & bitboards[Board.KINGS] |
+                Bitboard.pawnAttacks(!attacker, square) & bitboards[Board.PAWNS])) != 0;
+    }
+}
@@ -0,0 +1,81 @@
+package org.riisholt.dgtdriver.moveparser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.riisholt.dgtdriver.BWTime;
+import org.riisholt.dgtdriver.TestUtils;
+import org.riisholt.dgtdriver.game.*;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Random;
+
+class CompactGameTest {
+    @Test
+    void testCaptures() throws java.io.IOException {
+        for(String prefix: new String[]{"1", "2", "johan"}) {
+            Game game = TestUtils.parseCapture("/" + prefix + ".inbytes");
+            CompactGame compact = new CompactGame(game);
+            Game restored = compact.toGame();
+            assertEquals(game.pgn(true), restored.pgn(true));
+            assertEquals(game.uci(), restored.uci());
+            assertEquals(game.result, compact.result());
+            assertEquals(game.moves.size(), compact.plies());
+            for(int ply = 0; ply < compact.plies(); ply++)
+                assertTrue(compact.board(ply + 1).equalSetup(game.moves.get(ply).board()));
+        }
+    }
+
+    @Test
+    void testRandomGames() {
+        // Random games cover castling, en passant and promotions.
+        Random random = new Random(1);
+        for(int i = 0; i < 50; i++) {
+            Board start = i % 2 == 0? new Board(): Perft.standardPositions().get(1).board();
+            Game game = TestUtils.randomGame(random, start, Result.DRAW);
+            CompactGame compact = new CompactGame(start, game);
+            Game restored = compact.toGame();
+            assertEquals(game.uci(), restored.uci());
+            assertEquals(game.pgn(false), restored.pgn(false));
+            assertTrue(compact.board(compact.plies()).equalSetup(game.moves.get(game.moves.size() - 1).board()));
+            assertTrue(compact.startPosition().equalSetup(start));
+            for(int ply = 0; ply < game.moves.size(); ply++)
+                assertNull(compact.clockInfo(ply));
+        }
+    }
+
+    @Test
+    void testClock() {
+        Board board = new Board();
+        MoveList moves = new MoveList();
+        board.legalMoves(moves);
+        Move move = moves.get(0);
+        board.play(move);
+        BWTime time = new BWTime(Duration.ofSeconds(15 * 3600 + 59 * 60 + 59), (byte) 0x5,
+                Duration.ofSeconds(42), (byte) 0x2, (byte) 0x29);
+        Game game = new Game(Collections.singletonList(new PlayedMove("x", time, board, move)), null);
+
+        BWTime restored = new CompactGame(game).clockInfo(0);
+        assertEquals(time.left, restored.left);
+        assertEquals(time.right, restored.right);
+        assertEquals(time.leftFlags, restored.leftFlags);
+        assertEquals(time.rightFlags, restored.rightFlags);
+        assertEquals(time.clockStatusFlags, restored.clockStatusFlags);
+    }
+
+    @Test
+    void testIllegalMove() {
+        Board board = new Board();
+        Move move = new Move();
+        move.type = Move.NORMAL;
+        move.role = Role.PAWN;
+        move.from = Square.square(4, 1);
+        move.to = Square.square(4, 4);
+        Game game = new Game(Collections.singletonList(new PlayedMove("e5", null, board, move)), null);
+        assertThrows(IllegalArgumentException.class, () -> new CompactGame(game));
+    }
+}
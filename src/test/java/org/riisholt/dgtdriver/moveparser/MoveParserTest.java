@@ -1,12 +1,23 @@
 package org.riisholt.dgtdriver.moveparser;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
+import org.riisholt.dgtdriver.BWTime;
+import org.riisholt.dgtdriver.BoardDump;
+import org.riisholt.dgtdriver.DgtConstants;
 import org.riisholt.dgtdriver.DgtDriver;
+import org.riisholt.dgtdriver.DgtProtocolException;
+import org.riisholt.dgtdriver.FieldUpdate;
 import org.riisholt.dgtdriver.TestUtils;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 class MoveParserTest {
@@ -17,6 +28,355 @@ class MoveParserTest {
         testPgn("johan");
     }
 
+    @Test
+    void testPositionWindow() throws java.io.IOException {
+        // A bounded window gives the same games, with a bounded position map.
+        // The captures don't take back more than a move.
+        for(String prefix: new String[]{"1", "2", "johan"}) {
+            String expected = readGame("/" + prefix + ".inbytes").pgn(true);
+            for(int window: new int[]{4, 8}) {
+                List<Game> games = new ArrayList<>();
+                MoveParser parser = new MoveParser(games::add);
+                parser.setPositionWindow(window);
+                int[] maxPositions = {0};
+                processFile("/" + prefix + ".inbytes", msg -> {
+                    parser.gotMessage(msg);
+                    maxPositions[0] = Math.max(maxPositions[0], parser.positionCount());
+                });
+                parser.endGame();
+
+                assertEquals(1, games.size());
+                assertEquals(expected, games.get(0).pgn(true));
+                assertTrue(maxPositions[0] <= window,
+                        String.format("%d positions tracked with a window of %d", maxPositions[0], window));
+            }
+        }
+    }
+
+    @Test
+    void testTakeback() throws DgtProtocolException {
+        PhysicalBoard board = new PhysicalBoard();
+        board.move("e2", "e4");
+        board.move("e7", "e5");
+        board.move("g1", "f3");
+        // Take back both moves, then play something else.
+        board.move("f3", "g1");
+        board.move("e5", "e7");
+        board.move("c7", "c5");
+        assertEquals("e2e4 c7c5", board.uci());
+    }
+
+    @Test
+    void testIntermediateSquare() throws DgtProtocolException {
+        // The bishop is set down on e2 on its way to c4, which is a legal
+        // move in itself.
+        PhysicalBoard board = new PhysicalBoard();
+        board.move("e2", "e4");
+        board.move("e7", "e5");
+        board.move("f1", "e2");
+        board.move("e2", "d3");
+        board.move("d3", "c4");
+        board.move("g8", "f6");
+        assertEquals("e2e4 e7e5 f1c4 g8f6", board.uci());
+    }
+
+    @Test
+    void testMoveTypes() throws DgtProtocolException {
+        // Castling, en passant and promotion are all recognized from the
+        // squares they change, in whatever order the pieces are moved.
+        PhysicalBoard board = new PhysicalBoard();
+        board.move("e2", "e4");
+        board.move("g8", "f6");
+        board.move("e4", "e5");
+        board.move("d7", "d5");
+        // En passant, moving the capturing pawn first.
+        board.move("e5", "d6");
+        board.lift("d5");
+        board.move("e7", "d6");
+        board.move("g1", "f3");
+        board.move("f8", "e7");
+        board.move("f1", "e2");
+        // Castling with the rook first; Rf8 is a legal move in itself.
+        board.move("h8", "f8");
+        board.move("e8", "g8");
+        // Castling with the king first.
+        board.move("e1", "g1");
+        board.move("h1", "f1");
+        board.move("b7", "b5");
+        board.move("a2", "a4");
+        board.move("b5", "a4");
+        board.move("b2", "b4");
+        // En passant, removing the captured pawn first.
+        board.lift("b4");
+        board.move("a4", "b3");
+        board.move("f3", "d4");
+        board.move("b3", "b2");
+        board.move("b1", "c3");
+        // Promotion to a knight.
+        board.lift("b2");
+        board.lift("a1");
+        board.place("a1", DgtConstants.BKNIGHT);
+        assertEquals("e2e4 g8f6 e4e5 d7d5 e5d6 e7d6 g1f3 f8e7 f1e2 e8g8 e1g1 b7b5 a2a4 b5a4 b2b4 a4b3 f3d4 b3b2 b1c3 b2a1n",
+                board.uci());
+    }
+
+    @Test
+    void testGapRecovery() throws DgtProtocolException {
+        // Moves made while the board is disconnected are recovered from the
+        // board dump sent when it reconnects.
+        PhysicalBoard board = new PhysicalBoard();
+        board.move("e2", "e4");
+        board.disconnect();
+        board.move("e7", "e5");
+        board.move("g1", "f3");
+        board.move("b8", "c6");
+        board.reconnect();
+        assertEquals("e2e4 e7e5 g1f3 b8c6", board.uci());
+
+        // Play continues normally afterwards, and a gap with a capture is
+        // recovered as well.
+        board.move("f1", "b5");
+        board.disconnect();
+        board.move("a7", "a6");
+        board.move("b5", "c6");
+        board.reconnect();
+        assertEquals("e2e4 e7e5 g1f3 b8c6 f1b5 a7a6 b5c6", board.uci());
+        board.move("d7", "c6");
+        assertEquals("e2e4 e7e5 g1f3 b8c6 f1b5 a7a6 b5c6 d7c6", board.uci());
+    }
+
+    @Test
+    void testGapRecoverySettling() throws DgtProtocolException {
+        // Both players move at once, so the position after e5 is never on
+        // the board. Without a board dump, the gap is only recovered once
+        // the board has settled: at a clock update with no field updates
+        // since the previous one.
+        BWTime time = new BWTime(Duration.ofMinutes(5), (byte) 0, Duration.ofMinutes(4), (byte) 0, (byte) 0);
+        PhysicalBoard board = new PhysicalBoard();
+        board.move("e2", "e4");
+        board.lift("e7");
+        board.lift("g1");
+        board.place("e5", DgtConstants.BPAWN);
+        board.place("f3", DgtConstants.WKNIGHT);
+        board.parser.gotMessage(time);
+        assertEquals("e2e4", board.uci());
+        board.parser.gotMessage(time);
+        assertEquals("e2e4 e7e5 g1f3", board.uci());
+
+        // Or after several field updates in a row that aren't recognized.
+        board = new PhysicalBoard();
+        board.move("e2", "e4");
+        board.lift("e7");
+        board.lift("g1");
+        board.place("e5", DgtConstants.BPAWN);
+        board.place("f3", DgtConstants.WKNIGHT);
+        board.move("b8", "c6");
+        board.lift("c6");
+        assertEquals("e2e4", board.uci());
+        board.place("b8", DgtConstants.BKNIGHT);
+        assertEquals("e2e4 e7e5 g1f3", board.uci());
+    }
+
+    @Test
+    void testGapRecoveryLimits() throws DgtProtocolException {
+        // A gap longer than the limit isn't recovered.
+        PhysicalBoard board = new PhysicalBoard();
+        board.move("e2", "e4");
+        board.disconnect();
+        board.move("e7", "e5");
+        board.move("g1", "f3");
+        board.move("b8", "c6");
+        board.move("f1", "b5");
+        board.reconnect();
+        assertEquals("e2e4", board.uci());
+
+        // And with gap recovery disabled, nothing is.
+        board = new PhysicalBoard();
+        board.parser.setGapRecovery(0, 0);
+        board.move("e2", "e4");
+        board.disconnect();
+        board.move("e7", "e5");
+        board.move("g1", "f3");
+        board.reconnect();
+        assertEquals("e2e4", board.uci());
+
+        // Running out of nodes gives up as well.
+        board = new PhysicalBoard();
+        board.parser.setGapRecovery(3, 10);
+        board.disconnect();
+        board.move("e2", "e4");
+        board.move("e7", "e5");
+        board.move("g1", "f3");
+        board.reconnect();
+        assertEquals("", board.uci());
+
+        MoveParser parser = board.parser;
+        assertThrows(IllegalArgumentException.class, () -> parser.setGapRecovery(-1, 0));
+        assertThrows(IllegalArgumentException.class, () -> parser.setGapRecovery(8, 20000));
+        parser.setGapRecovery(7, 20000);
+    }
+
+    @Test
+    void testMoveListener() throws java.io.IOException {
+        // The moves passed to the listener always add up to the game so far.
+        for(String prefix: new String[]{"1", "2", "johan"}) {
+            List<String> moves = new ArrayList<>();
+            int[] confirmed = {0};
+            MoveParser parser = new MoveParser(game -> moves.clear());
+            parser.setMoveListener(new MoveParser.MoveListener() {
+                public void moveConfirmed(PlayedMove move, int ply) {
+                    assertEquals(moves.size(), ply);
+                    moves.add(move.san());
+                    confirmed[0]++;
+                }
+
+                public void movesRetracted(int ply) {
+                    assertTrue(ply < moves.size());
+                    moves.subList(ply, moves.size()).clear();
+                }
+            });
+            processFile("/" + prefix + ".inbytes", msg -> {
+                parser.gotMessage(msg);
+                assertEquals(sans(parser.currentGame(null)), moves);
+            });
+            assertTrue(confirmed[0] > 0);
+        }
+    }
+
+    @Test
+    void testMoveListenerTakeback() throws DgtProtocolException {
+        PhysicalBoard board = new PhysicalBoard();
+        List<String> events = new ArrayList<>();
+        board.parser.setMoveListener(new MoveParser.MoveListener() {
+            public void moveConfirmed(PlayedMove move, int ply) {
+                events.add(ply + " " + move.san());
+            }
+
+            public void movesRetracted(int ply) {
+                events.add("retract " + ply);
+            }
+        });
+        board.move("e2", "e4");
+        board.move("e7", "e5");
+        board.move("g1", "f3");
+        board.move("f3", "g1");
+        board.move("e5", "e7");
+        board.move("c7", "c5");
+        // The bishop passes through e2 on its way to c4.
+        board.move("f1", "e2");
+        board.move("e2", "c4");
+        assertEquals(Arrays.asList("0 e4", "1 e5", "2 Nf3", "retract 2", "retract 1", "1 c5",
+                "2 Be2", "retract 2", "2 Bc4"), events);
+    }
+
+    @Test
+    void testCurrentGameSnapshot() throws DgtProtocolException {
+        PhysicalBoard board = new PhysicalBoard();
+        board.move("e2", "e4");
+        board.move("e7", "e5");
+        Game first = board.parser.currentGame(null);
+        Game second = board.parser.currentGame(null);
+        assertSame(first.moves.get(1), second.moves.get(1));
+        // The SAN and board of a move are made once, when first needed.
+        PlayedMove last = first.moves.get(1);
+        assertEquals("e5", last.san());
+        assertSame(last.board(), last.board());
+        assertTrue(last.board().equalSetup(board.parser.boardState()));
+
+        // A clock update replaces the last move, and leaves the rest alone.
+        BWTime time = new BWTime(Duration.ofMinutes(5), (byte) 0, Duration.ofMinutes(4), (byte) 0, (byte) 0);
+        board.parser.gotMessage(time);
+        Game clocked = board.parser.currentGame(null);
+        assertSame(first.moves.get(0), clocked.moves.get(0));
+        assertSame(time, clocked.moves.get(1).clockInfo);
+        assertNull(first.moves.get(1).clockInfo);
+
+        // Games already returned don't change with the game in progress.
+        board.move("g1", "f3");
+        board.move("f3", "g1");
+        board.move("e5", "e7");
+        assertEquals(2, first.moves.size());
+        assertEquals(1, board.parser.currentGame(null).moves.size());
+        assertSame(first.moves.get(0), board.parser.currentGame(null).moves.get(0));
+    }
+
+    private static List<String> sans(Game game) {
+        List<String> sans = new ArrayList<>();
+        for(PlayedMove m: game.moves)
+            sans.add(m.san());
+        return sans;
+    }
+
+    /* A board the tests move pieces around on, sending the field updates
+     * to a MoveParser. While disconnected, nothing is sent, and on
+     * reconnecting the board sends a dump. */
+    private static class PhysicalBoard {
+        final byte[] squares = new byte[64];
+        final MoveParser parser;
+        final List<Game> games = new ArrayList<>();
+        boolean connected = true;
+
+        PhysicalBoard() throws DgtProtocolException {
+            parser = new MoveParser(games::add);
+            byte[] back = {DgtConstants.BROOK, DgtConstants.BKNIGHT, DgtConstants.BBISHOP, DgtConstants.BQUEEN,
+                    DgtConstants.BKING, DgtConstants.BBISHOP, DgtConstants.BKNIGHT, DgtConstants.BROOK};
+            for(int file = 0; file < 8; file++) {
+                squares[file] = back[file];
+                squares[8 + file] = DgtConstants.BPAWN;
+                squares[48 + file] = DgtConstants.WPAWN;
+                // The white pieces are the black ones, minus 6.
+                squares[56 + file] = (byte) (back[file] - 6);
+            }
+            parser.gotMessage(new BoardDump(squares));
+        }
+
+        // DGT square codes run from a8 to h1.
+        static int square(String name) {
+            return (7 - (name.charAt(1) - '1')) * 8 + (name.charAt(0) - 'a');
+        }
+
+        void lift(String name) throws DgtProtocolException {
+            int square = square(name);
+            squares[square] = DgtConstants.EMPTY;
+            if(connected)
+                parser.gotMessage(new FieldUpdate(new byte[]{(byte) square, DgtConstants.EMPTY}));
+        }
+
+        void place(String name, byte piece) throws DgtProtocolException {
+            int square = square(name);
+            squares[square] = piece;
+            if(connected)
+                parser.gotMessage(new FieldUpdate(new byte[]{(byte) square, piece}));
+        }
+
+        void move(String from, String to) throws DgtProtocolException {
+            byte piece = squares[square(from)];
+            lift(from);
+            if(squares[square(to)] != DgtConstants.EMPTY)
+                lift(to);
+            place(to, piece);
+        }
+
+        void disconnect() {
+            connected = false;
+        }
+
+        void reconnect() throws DgtProtocolException {
+            connected = true;
+            parser.gotMessage(new BoardDump(squares));
+        }
+
+        String uci() {
+            StringBuilder sb = new StringBuilder();
+            for(PlayedMove m: parser.currentGame(null).moves) {
+                if(sb.length() > 0)
+                    sb.append(' ');
+                sb.append(m.move.uci());
+            }
+            return sb.toString();
+        }
+    }
+
     void testUci(String prefix) throws java.io.IOException {
         assertEquals(TestUtils.readResourceFile("/" + prefix + ".uci"), readGame("/" + prefix + ".inbytes").uci());
     }
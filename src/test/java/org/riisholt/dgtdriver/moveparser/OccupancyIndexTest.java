@@ -0,0 +1,54 @@
+package org.riisholt.dgtdriver.moveparser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+class OccupancyIndexTest {
+    @Test
+    void testAgainstHashMap() {
+        // Few distinct keys, so that adds and removes hit the same keys and
+        // probe sequences collide, and enough of them to force the table to
+        // grow a few times.
+        Random random = new Random(4);
+        long[] keys = new long[500];
+        for(int i = 0; i < keys.length; i++)
+            keys[i] = i == 0? 0: random.nextLong();
+
+        OccupancyIndex index = new OccupancyIndex();
+        HashMap<Long, Integer> expected = new HashMap<>();
+        for(int i = 0; i < 200000; i++) {
+            long key = keys[random.nextInt(keys.length)];
+            if(random.nextInt(5) < 3) {
+                index.add(key);
+                expected.merge(key, 1, Integer::sum);
+            }
+            else {
+                index.remove(key);
+                expected.computeIfPresent(key, (k, count) -> count > 1? count - 1: null);
+            }
+
+            if(i % 1000 == 0) {
+                for(long k: keys)
+                    assertEquals(expected.containsKey(k), index.contains(k), "contains " + k);
+                assertEquals(expected.size(), index.size());
+            }
+        }
+
+        // Empty it completely.
+        for(Long key: expected.keySet()) {
+            for(int count = expected.get(key); count > 0; count--)
+                index.remove(key);
+        }
+        assertEquals(0, index.size());
+
+        index.add(keys[1]);
+        index.clear();
+        assertEquals(0, index.size());
+        for(long k: keys)
+            assertEquals(false, index.contains(k));
+    }
+}
@@ -0,0 +1,122 @@
+package org.riisholt.dgtdriver.pgn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.riisholt.dgtdriver.DgtDriver;
+import org.riisholt.dgtdriver.DgtMessage;
+import org.riisholt.dgtdriver.TestUtils;
+import org.riisholt.dgtdriver.game.Result;
+import org.riisholt.dgtdriver.moveparser.Game;
+import org.riisholt.dgtdriver.moveparser.MoveParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+class LivePgnSinkTest {
+    @Test
+    void testCaptures() throws IOException {
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("Event", "Live événement");
+        tags.put("Board", "1");
+        for(String prefix: new String[]{"1", "2", "johan"}) {
+            for(boolean includeClock: new boolean[]{false, true}) {
+                Path path = Files.createTempFile("live", ".pgn");
+                try {
+                    testCapture(prefix, path, tags, includeClock);
+                }
+                finally {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static void testCapture(String prefix, Path path, Map<String, String> tags, boolean includeClock)
+            throws IOException {
+        // The file matches the game so far after every message.
+        List<Game> games = new ArrayList<>();
+        MoveParser parser = new MoveParser(games::add);
+        LivePgnSink sink = new LivePgnSink(path, tags, includeClock);
+        parser.setMoveListener(sink);
+        List<DgtMessage> messages = new ArrayList<>();
+        DgtDriver driver = new DgtDriver(messages::add, null);
+        for(byte[] b: TestUtils.readBytes("/" + prefix + ".inbytes"))
+            driver.gotBytes(b);
+        for(DgtMessage msg: messages) {
+            parser.gotMessage(msg);
+            if(!games.isEmpty())
+                break;
+            assertEquals(expected(parser.currentGame(null), tags, includeClock), read(path));
+        }
+        parser.setMoveListener(null);
+        if(games.isEmpty())
+            parser.endGame();
+
+        Game game = games.get(0);
+        sink.finish(game.result);
+        assertEquals(expected(game, tags, includeClock), read(path));
+    }
+
+    @Test
+    void testReplacedMoves() throws IOException {
+        // A move confirmed at an earlier ply replaces the moves from there
+        // on, without a call to movesRetracted first.
+        Game game = TestUtils.parseCapture("/johan.inbytes");
+        Map<String, String> tags = new LinkedHashMap<>();
+        Path path = Files.createTempFile("live", ".pgn");
+        try(LivePgnSink sink = new LivePgnSink(path, tags, true)) {
+            for(int ply = 0; ply <= 8; ply++)
+                sink.moveConfirmed(game.moves.get(ply), ply);
+            for(int ply = 3; ply < game.moves.size(); ply++)
+                sink.moveConfirmed(game.moves.get(ply), ply);
+            assertEquals(expected(new Game(game.moves, null), tags, true), read(path));
+
+            sink.moveConfirmed(game.moves.get(1), 1);
+            assertEquals(expected(new Game(game.moves.subList(0, 2), null), tags, true), read(path));
+        }
+        finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testResult() throws IOException {
+        Path path = Files.createTempFile("live", ".pgn");
+        try {
+            Map<String, String> tags = new LinkedHashMap<>();
+            for(Result result: new Result[]{Result.WHITE_WIN, Result.DRAW, null}) {
+                new LivePgnSink(path, tags, false).finish(result);
+                String pgn = read(path);
+                Game game = new Game(new ArrayList<>(), result);
+                assertEquals(expected(game, tags, false), pgn);
+                assertTrue(pgn.endsWith("\n\n " + (result == null? "*": result.resultString()) + "\n\n"));
+            }
+        }
+        finally {
+            Files.delete(path);
+        }
+    }
+
+    private static String expected(Game game, Map<String, String> tags, boolean includeClock) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        new PgnWriter(sb).writeGame(game, tags, includeClock);
+        // The Result tag is padded to fit the longest result.
+        int start = sb.indexOf("[Result ");
+        int end = sb.indexOf("\n", start);
+        while(end - start < "[Result \"1/2-1/2\"]".length())
+            sb.insert(end++, ' ');
+        return sb.toString();
+    }
+
+    private static String read(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,193 @@
+package org.riisholt.dgtdriver.pgn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.riisholt.dgtdriver.TestUtils;
+import org.riisholt.dgtdriver.game.*;
+import org.riisholt.dgtdriver.moveparser.Game;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+class PgnReaderTest {
+    @Test
+    void testReference() throws IOException {
+        // The reference game reads back as the game the move parser makes.
+        String pgn = TestUtils.readResourceFile("/johan.pgn");
+        PgnReader reader = new PgnReader(new StringReader(pgn));
+        PgnGame read = reader.next();
+        assertNull(reader.next());
+
+        Game game = TestUtils.parseCapture("/johan.inbytes");
+        assertEquals(game.uci(), read.game.uci());
+        assertEquals(pgn, read.game.pgn(false));
+        assertTrue(read.tags.isEmpty());
+    }
+
+    @Test
+    void testCaptures() throws IOException {
+        // Games written with tags and clocks read back the same.
+        StringBuilder sb = new StringBuilder();
+        PgnWriter writer = new PgnWriter(sb);
+        List<Game> games = new ArrayList<>();
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("White", "Johan \"The Hand\" Sebastian");
+        tags.put("Annotator", "C:\\dgt");
+        for(String prefix: new String[]{"1", "2", "johan"}) {
+            Game game = TestUtils.parseCapture("/" + prefix + ".inbytes");
+            games.add(game);
+            writer.writeGame(game, tags, true);
+        }
+
+        PgnReader reader = new PgnReader(new StringReader(sb.toString()));
+        for(Game game: games) {
+            PgnGame read = reader.next();
+            assertEquals(game.uci(), read.game.uci());
+            assertEquals(game.pgn(true), read.game.pgn(true));
+            assertEquals(game.result, read.game.result);
+            assertEquals("Johan \"The Hand\" Sebastian", read.tags.get("White"));
+            assertEquals("C:\\dgt", read.tags.get("Annotator"));
+            assertEquals("?", read.tags.get("Event"));
+            assertEquals(8, read.tags.size());
+        }
+        assertNull(reader.next());
+    }
+
+    @Test
+    void testRandomGames() throws IOException {
+        // Random games cover castling, en passant, promotions and
+        // disambiguation.
+        List<Game> games = randomGames(50);
+        StringBuilder sb = new StringBuilder();
+        PgnWriter writer = new PgnWriter(sb);
+        for(Game game: games)
+            writer.writeGame(game, false);
+
+        List<PgnGame> read = new ArrayList<>();
+        new PgnReader(new StringReader(sb.toString())).readAll(read::add);
+        assertEquals(games.size(), read.size());
+        for(int i = 0; i < games.size(); i++) {
+            assertEquals(games.get(i).uci(), read.get(i).game.uci());
+            assertEquals(games.get(i).pgn(false), read.get(i).game.pgn(false));
+        }
+    }
+
+    @Test
+    void testSyntax() throws IOException {
+        String pgn = "% An escaped line\n" +
+                "[Event \"Test\"]\n" +
+                "[FEN \"r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1\"]\n" +
+                "\n" +
+                "1. 0-0 {A comment (with parentheses)} $1 O-O-O ; To the end of the line\n" +
+                "(1... O-O {Castling} (1... Kd8) 2. Kh1) 2. Ra8+!? Kb7 $2 3.Rxd8 Rxd8 *\n" +
+                "\n" +
+                "1. e4 {[%clk 0:01:02.5]} e5 {[%clk 1:02.03]} 2. Nf3 Nf6 1/2-1/2\n";
+        PgnReader reader = new PgnReader(new StringReader(pgn));
+
+        PgnGame game = reader.next();
+        assertEquals("Test", game.tags.get("Event"));
+        assertTrue(game.startPosition().equalSetup(Board.fromFen("r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1")));
+        assertEquals("1. e1g1 e8c8\n2. a1a8 c8b7\n3. a8d8 h8d8\n *\n", game.game.uci());
+        assertNull(game.game.result);
+
+        game = reader.next();
+        assertEquals(Result.DRAW, game.game.result);
+        assertEquals("1. e4 {[%clk 0:01.02]} e5 {[%clk 1:02.03]}\n2. Nf3 Nf6\n 1/2-1/2\n", game.game.pgn(true));
+        assertNull(reader.next());
+    }
+
+    @Test
+    void testInvalid() {
+        String[] invalid = {
+                "1. e5 *",
+                // Both knights can go to d2.
+                "[FEN \"4k3/8/8/8/8/8/8/1N2KN2 w - - 0 1\"]\n\n1. Nd2 *",
+                "1. e4 {Unterminated comment",
+                "[Event \"Unterminated tag]\n",
+                "1. Zz9 *",
+        };
+        for(String pgn: invalid)
+            assertThrows(PgnException.class, () -> new PgnReader(new StringReader(pgn)).next());
+    }
+
+    @Test
+    void testParallel() throws IOException {
+        List<Game> games = randomGames(200);
+        Path path = Files.createTempFile("games", ".pgn");
+        try {
+            try(PgnWriter writer = new PgnWriter(Files.newOutputStream(path))) {
+                Map<String, String> tags = new LinkedHashMap<>();
+                for(int i = 0; i < games.size(); i++) {
+                    tags.put("Round", Integer.toString(i));
+                    writer.writeGame(games.get(i), tags, false);
+                }
+            }
+
+            ConcurrentLinkedQueue<PgnGame> read = new ConcurrentLinkedQueue<>();
+            ForkJoinPool pool = new ForkJoinPool(4);
+            try {
+                assertEquals(games.size(), PgnReader.readParallel(path, pool, read::add));
+            }
+            finally {
+                pool.shutdown();
+            }
+            assertEquals(games.size(), read.size());
+            for(PgnGame game: read)
+                assertEquals(games.get(Integer.parseInt(game.tags.get("Round"))).uci(), game.game.uci());
+
+            // Every part starts with a game.
+            try(java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(path)) {
+                long[] bounds = PgnReader.split(channel, 16);
+                assertTrue(bounds.length > 2);
+                byte[] bytes = Files.readAllBytes(path);
+                for(int i = 0; i + 1 < bounds.length; i++)
+                    assertTrue(new String(bytes, (int) bounds[i], 8, StandardCharsets.UTF_8).startsWith("[Event "));
+            }
+        }
+        finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testSplitComments() throws IOException {
+        // Games aren't found inside comments, unless the search starts in a
+        // comment before the '[' that looks like a game.
+        String pgn = "[Event \"1\"]\n\n1. e4 {A comment\n\n[with brackets]} e5 *\n\n[Event \"2\"]\n\n1. d4 *\n";
+        Path path = Files.createTempFile("games", ".pgn");
+        try {
+            Files.write(path, pgn.getBytes(StandardCharsets.UTF_8));
+            try(java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(path)) {
+                java.nio.ByteBuffer block = java.nio.ByteBuffer.allocate(8);
+                int second = pgn.indexOf("[Event \"2\"]");
+                for(int position = 0; position < second - 1; position++) {
+                    if(position > pgn.indexOf('{') && position <= pgn.indexOf("[with"))
+                        continue;
+                    assertEquals(second, PgnReader.gameStart(channel, position, block), "From " + position);
+                }
+                assertEquals(pgn.length(), PgnReader.gameStart(channel, second + 1, block));
+            }
+        }
+        finally {
+            Files.delete(path);
+        }
+    }
+
+    private static List<Game> randomGames(int count) {
+        Random random = new Random(1);
+        List<Game> games = new ArrayList<>();
+        for(int i = 0; i < count; i++)
+            games.add(TestUtils.randomGame(random, new Board(), Result.values()[i % 3]));
+        return games;
+    }
+}
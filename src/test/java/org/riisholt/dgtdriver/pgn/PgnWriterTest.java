@@ -0,0 +1,110 @@
+package org.riisholt.dgtdriver.pgn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.riisholt.dgtdriver.TestUtils;
+import org.riisholt.dgtdriver.moveparser.Game;
+import org.riisholt.dgtdriver.moveparser.PlayedMove;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+class PgnWriterTest {
+    @Test
+    void testMoves() throws IOException {
+        Game game = TestUtils.parseCapture("/johan.inbytes");
+        StringBuilder sb = new StringBuilder();
+        new PgnWriter(sb).writeMoves(game, false);
+        assertEquals(TestUtils.readResourceFile("/johan.pgn"), sb.toString());
+
+        for(String prefix: new String[]{"1", "2"}) {
+            sb.setLength(0);
+            new PgnWriter(sb).writeUci(TestUtils.parseCapture("/" + prefix + ".inbytes"));
+            assertEquals(TestUtils.readResourceFile("/" + prefix + ".uci"), sb.toString());
+        }
+    }
+
+    @Test
+    void testClock() throws IOException {
+        // The clock comments are formatted like the time strings of BWTime.
+        for(String prefix: new String[]{"1", "2", "johan"}) {
+            Game game = TestUtils.parseCapture("/" + prefix + ".inbytes");
+            StringBuilder expected = new StringBuilder();
+            int ply = 0;
+            for(PlayedMove m: game.moves) {
+                if(ply % 2 == 0) {
+                    expected.append(1 + ply/2).append(". ").append(m.san());
+                    if(m.clockInfo != null)
+                        expected.append(" {[%clk ").append(m.clockInfo.leftTimeString()).append("]}");
+                }
+                else {
+                    expected.append(' ').append(m.san());
+                    if(m.clockInfo != null)
+                        expected.append(" {[%clk ").append(m.clockInfo.rightTimeString()).append("]}");
+                    expected.append('\n');
+                }
+                ply++;
+            }
+            expected.append(' ').append(game.result != null? game.result.resultString(): "*").append('\n');
+
+            StringBuilder sb = new StringBuilder();
+            new PgnWriter(sb).writeMoves(game, true);
+            assertEquals(expected.toString(), sb.toString());
+            assertEquals(expected.toString(), game.pgn(true));
+        }
+    }
+
+    @Test
+    void testTags() throws IOException {
+        Game game = TestUtils.parseCapture("/johan.inbytes");
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("Annotator", "Someone");
+        tags.put("White", "Johan \"The Hand\" Sebastian");
+        tags.put("Date", "2019.05.17");
+        tags.put("Result", "ignored");
+        tags.put("Board", "C:\\dgt");
+
+        StringBuilder sb = new StringBuilder();
+        new PgnWriter(sb).writeGame(game, tags, false);
+        String expected = "[Event \"?\"]\n" +
+                "[Site \"?\"]\n" +
+                "[Date \"2019.05.17\"]\n" +
+                "[Round \"?\"]\n" +
+                "[White \"Johan \\\"The Hand\\\" Sebastian\"]\n" +
+                "[Black \"?\"]\n" +
+                "[Result \"" + game.result.resultString() + "\"]\n" +
+                "[Annotator \"Someone\"]\n" +
+                "[Board \"C:\\\\dgt\"]\n" +
+                "\n" +
+                game.pgn(false) +
+                "\n";
+        assertEquals(expected, sb.toString());
+
+        Map<String, String> invalid = new LinkedHashMap<>();
+        invalid.put("Bad Tag", "x");
+        assertThrows(IllegalArgumentException.class, () -> new PgnWriter(new StringBuilder()).writeGame(game, invalid, false));
+    }
+
+    @Test
+    void testOutputStream() throws IOException {
+        // Several games written to a stream follow each other directly.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StringBuilder expected = new StringBuilder();
+        try(PgnWriter writer = new PgnWriter(bytes)) {
+            for(String prefix: new String[]{"1", "2", "johan"}) {
+                Game game = TestUtils.parseCapture("/" + prefix + ".inbytes");
+                writer.writeGame(game, true);
+                new PgnWriter(expected).writeGame(game, true);
+            }
+        }
+        String written = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        assertEquals(expected.toString(), written);
+        assertTrue(written.startsWith("[Event \"?\"]\n[Site \"?\"]\n[Date \"????.??.??\"]\n"));
+    }
+}
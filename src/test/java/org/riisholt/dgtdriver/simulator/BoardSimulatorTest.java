@@ -0,0 +1,142 @@
+package org.riisholt.dgtdriver.simulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.riisholt.dgtdriver.*;
+import org.riisholt.dgtdriver.game.*;
+import org.riisholt.dgtdriver.moveparser.Game;
+import org.riisholt.dgtdriver.moveparser.MoveParser;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+class BoardSimulatorTest {
+    @Test
+    void testCaptures() throws java.io.IOException {
+        // The recorded games come out of the parser as they went in, clock
+        // times included, however the pieces are moved.
+        for(String prefix: new String[]{"1", "2", "johan"}) {
+            Game game = TestUtils.parseCapture("/" + prefix + ".inbytes");
+            for(int variant = 0; variant < 4; variant++) {
+                Game played = playThrough(game, variant % 2 == 1, variant >= 2? 0.2: 0, variant);
+                assertEquals(game.uci(), played.uci());
+                assertEquals(game.pgn(true), played.pgn(true));
+                assertEquals(game.result, played.result);
+            }
+        }
+    }
+
+    @Test
+    void testRandomGames() {
+        // Random games cover castling, en passant and promotions.
+        Random random = new Random(1);
+        for(int i = 0; i < 30; i++) {
+            Game game = TestUtils.randomGame(random, new Board(), Result.values()[i % 3]);
+            Game result = playThrough(game, i % 2 == 1, 0.1, i);
+            assertEquals(game.uci(), result.uci());
+            assertEquals(game.result, result.result);
+        }
+    }
+
+    @Test
+    void testCommands() {
+        List<DgtMessage> messages = new ArrayList<>();
+        DgtDriver[] driver = new DgtDriver[1];
+        BoardSimulator simulator = new BoardSimulator(bytes -> driver[0].gotBytes(bytes));
+        driver[0] = new DgtDriver(messages::add, simulator::gotBytes);
+        simulator.setUp(new Board());
+
+        driver[0].board();
+        driver[0].version();
+        driver[0].serialnr();
+        driver[0].trademark();
+        driver[0].busadress();
+        driver[0].eeMoves();
+        assertEquals(6, messages.size());
+        assertTrue(((BoardDump) messages.get(0)).board.equalSetup(new Board()));
+        assertEquals(1, ((VersionMessage) messages.get(1)).major);
+        assertEquals("00000", ((SerialnrMessage) messages.get(2)).value);
+        assertTrue(((TrademarkMessage) messages.get(3)).value.startsWith("Digital Game Technology"));
+        assertEquals(0, ((Busadress) messages.get(4)).address);
+        assertTrue(messages.get(5) instanceof EEMoves);
+
+        // Clock commands are acknowledged in the update modes.
+        messages.clear();
+        driver[0].updateNice();
+        assertTrue(driver[0].clockSetnrun(Duration.ofMinutes(90), false, Duration.ofSeconds(3723), false, false, true));
+        assertEquals(1, messages.size());
+        assertTrue(((ClockAck) messages.get(0)).isSetNRunAck());
+        assertTrue(driver[0].isReadyForClockMessage());
+        driver[0].clock();
+        BWTime time = (BWTime) messages.get(1);
+        assertEquals(Duration.ofMinutes(90), time.left);
+        assertEquals(Duration.ofSeconds(3723), time.right);
+        assertTrue(time.clockRunning());
+    }
+
+    @Test
+    void testModes() {
+        // Field updates are only sent in the update modes.
+        List<DgtMessage> messages = new ArrayList<>();
+        DgtDriver[] driver = new DgtDriver[1];
+        BoardSimulator simulator = new BoardSimulator(bytes -> driver[0].gotBytes(bytes));
+        driver[0] = new DgtDriver(messages::add, simulator::gotBytes);
+        simulator.setUp(new Board());
+        assertTrue(messages.isEmpty());
+
+        MoveList moves = new MoveList();
+        simulator.position().legalMoves(moves);
+        driver[0].updateBoard();
+        simulator.play(moves.get(0));
+        assertEquals(2, messages.size());
+        FieldUpdate lift = (FieldUpdate) messages.get(0);
+        FieldUpdate place = (FieldUpdate) messages.get(1);
+        assertEquals(moves.get(0).from, lift.square);
+        assertEquals(null, lift.role);
+        assertEquals(moves.get(0).to, place.square);
+        assertEquals(moves.get(0).role, place.role);
+
+        messages.clear();
+        driver[0].reset();
+        Board position = simulator.position();
+        position.legalMoves(moves);
+        simulator.play(moves.get(0));
+        assertTrue(messages.isEmpty());
+        position.play(moves.get(0));
+        driver[0].board();
+        assertTrue(((BoardDump) messages.get(0)).board.equalSetup(position));
+
+        Move illegal = new Move(moves.get(0));
+        assertThrows(IllegalArgumentException.class, () -> simulator.play(illegal));
+    }
+
+    private static Game playThrough(Game game, boolean rotated, double flicker, long seed) {
+        List<Game> games = new ArrayList<>();
+        MoveParser parser = new MoveParser(games::add);
+        DgtDriver[] driver = new DgtDriver[1];
+        BoardSimulator simulator = new BoardSimulator(bytes -> driver[0].gotBytes(bytes));
+        driver[0] = new DgtDriver(parser::gotMessage, simulator::gotBytes);
+        simulator.setRotated(rotated);
+        simulator.setFlicker(flicker);
+        simulator.setRandom(new Random(seed));
+
+        driver[0].reset();
+        driver[0].board();
+        driver[0].updateNice();
+        // The game is played twice, to check that the board is picked up
+        // again after the first game.
+        for(int i = 0; i < 2; i++) {
+            simulator.play(game);
+            if(games.size() == i)
+                parser.endGame();
+        }
+        assertEquals(2, games.size());
+        assertEquals(games.get(0).uci(), games.get(1).uci());
+        return games.get(1);
+    }
+}